@@ -0,0 +1,137 @@
+package org.jenkinsci.fixtures;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.InvisibleAction;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.model.queue.ScheduleResult;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Queues a batch of builds of one job and returns once all are finalized, keeping up to a given number in flight.
+ * Concurrent builds are enabled on the job and the master gets enough executors for the window, both only for the
+ * duration of {@link #run()}.
+ */
+public class BuildBatch<R extends Run<?, ?>> {
+
+    final Job<?, R> job;
+    int builds = 1;
+    int parallelism = 1;
+    long elapsedNanos;
+
+    /** Makes every queued build distinct, otherwise the queue folds identical requests for a job into one */
+    static final class DistinctBuildAction extends InvisibleAction implements Queue.QueueAction {
+        @Override
+        public boolean shouldSchedule(List<Action> actions) {
+            return true;
+        }
+    }
+
+    public BuildBatch(Job<?, R> job) {
+        if (!(job instanceof Queue.Task)) {
+            throw new IllegalArgumentException("Job can not be scheduled: "+job.getFullName());
+        }
+        this.job = job;
+    }
+
+    public BuildBatch<R> builds(int builds) {
+        this.builds = builds;
+        return this;
+    }
+
+    /** Maximum builds queued or running at once, 1 runs them one after another */
+    public BuildBatch<R> parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /** Wall time of the last {@link #run()}, for working out build throughput */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getBuildsPerSecond() {
+        return elapsedNanos > 0 ? builds * 1e9 / elapsedNanos : 0;
+    }
+
+    /** Run the batch, returning the finalized runs in the order they were scheduled */
+    public List<R> run() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        BuildCompletionLatch latch = BuildCompletionLatch.get();
+        boolean wasConcurrent = setConcurrentBuild(parallelism > 1);
+        int executors = jenkins.getNumExecutors();
+        if (executors < parallelism) {
+            jenkins.setNumExecutors(parallelism);
+        }
+
+        final Semaphore inFlight = new Semaphore(parallelism);
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                inFlight.release();
+            }
+        };
+        List<R> runs = new ArrayList<R>(builds);
+        long start = System.nanoTime();
+        try {
+            for (int i=0; i<builds; i++) {
+                inFlight.acquire();
+                R run = BuildCompletionLatch.started(schedule(job));
+                ListenableFuture<R> done = latch.whenFinalized(run);
+                done.addListener(release, MoreExecutors.sameThreadExecutor());
+                runs.add(run);
+            }
+            latch.whenAllFinalized(runs).get();
+            elapsedNanos = System.nanoTime() - start;
+        } finally {
+            setConcurrentBuild(wasConcurrent);
+            if (jenkins.getNumExecutors() != executors) {
+                jenkins.setNumExecutors(executors);
+            }
+        }
+        return runs;
+    }
+
+    /** Queue one build of the job that will not be merged with others already waiting */
+    @SuppressWarnings("unchecked")
+    public static <R extends Run<?, ?>> QueueTaskFuture<R> schedule(Job<?, R> job) {
+        ScheduleResult scheduled = Jenkins.getInstance().getQueue().schedule2((Queue.Task) job, 0,
+                new DistinctBuildAction(), new CauseAction(new Cause.UserIdCause()));
+        if (!scheduled.isCreated()) {
+            throw new IllegalStateException("Queue refused a build of "+job.getFullName());
+        }
+        return (QueueTaskFuture) scheduled.getCreateItem().getFuture();
+    }
+
+    /** Returns the previous setting */
+    boolean setConcurrentBuild(boolean concurrent) throws Exception {
+        if (job instanceof WorkflowJob) {
+            WorkflowJob p = (WorkflowJob) job;
+            boolean was = p.isConcurrentBuild();
+            if (was != concurrent) {
+                p.setConcurrentBuild(concurrent);
+            }
+            return was;
+        } else if (job instanceof AbstractProject) {
+            AbstractProject<?, ?> p = (AbstractProject<?, ?>) job;
+            boolean was = p.isConcurrentBuild();
+            if (was != concurrent) {
+                p.setConcurrentBuild(concurrent);
+            }
+            return was;
+        }
+        return false;
+    }
+}
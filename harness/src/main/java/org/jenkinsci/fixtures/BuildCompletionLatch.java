@@ -0,0 +1,93 @@
+package org.jenkinsci.fixtures;
+
+import com.google.common.base.Function;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueTaskFuture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Futures which complete the moment runs are finalized (finished and saved), driven by a RunListener instead of polling.
+ * One listener is registered per Jenkins instance, get it with {@link #get()}. It only knows about runs finalized after
+ * it was registered, which {@link #started} takes care of for builds waited on that way.
+ */
+public class BuildCompletionLatch extends RunListener<Run<?, ?>> {
+
+    /**
+     * Runs are no longer building a little before they are finalized, so we keep track of finalized ones ourselves.
+     * Keyed weakly by instance, not by id: ids repeat when a job is deleted and created again (benchmarks recreating
+     * their job per invocation get #1 every time), and deleting a job fires nothing for its runs. A building run is held
+     * by its executor, so the instance we wait on is the one that gets finalized. Done futures mean finalized runs.
+     */
+    final ConcurrentMap<Run<?, ?>, SettableFuture<Boolean>> finalized = new MapMaker().weakKeys().makeMap();
+
+    BuildCompletionLatch() {
+        super((Class) Run.class);
+    }
+
+    /** The latch registered with the running Jenkins, registering it on first use */
+    public static synchronized BuildCompletionLatch get() {
+        for (RunListener<?> listener : RunListener.all()) {
+            if (listener instanceof BuildCompletionLatch) {
+                return (BuildCompletionLatch) listener;
+            }
+        }
+        BuildCompletionLatch latch = new BuildCompletionLatch();
+        RunListener.all().add(latch);
+        return latch;
+    }
+
+    /** Wait for a scheduled build to leave the queue and start, without polling */
+    @SuppressWarnings("unchecked")
+    public static <R extends Run<?, ?>> R started(QueueTaskFuture<R> scheduled) throws InterruptedException, ExecutionException {
+        get();  // Registered before the build can finish, so whenFinalized hears about it
+        return (R) scheduled.getStartCondition().get();
+    }
+
+    public <R extends Run<?, ?>> ListenableFuture<R> whenFinalized(final R run) {
+        // The map's futures hold only a flag, so values don't keep their weak keys alive
+        return Futures.transform(futureFor(run), new Function<Boolean, R>() {
+            @Override
+            public R apply(Boolean done) {
+                return run;
+            }
+        });
+    }
+
+    SettableFuture<Boolean> futureFor(Run<?, ?> run) {
+        SettableFuture<Boolean> future = SettableFuture.create();
+        SettableFuture<Boolean> existing = finalized.putIfAbsent(run, future);
+        return (existing != null) ? existing : future;
+    }
+
+    /** Completes once every one of the runs is finalized */
+    public <R extends Run<?, ?>> ListenableFuture<List<R>> whenAllFinalized(Collection<R> runs) {
+        List<ListenableFuture<R>> futures = new ArrayList<ListenableFuture<R>>(runs.size());
+        for (R run : runs) {
+            futures.add(whenFinalized(run));
+        }
+        return Futures.allAsList(futures);
+    }
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        futureFor(run).set(true);
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        SettableFuture<Boolean> future = finalized.remove(run);
+        if (future != null) {  // Does nothing if it was finalized already
+            future.setException(new IllegalStateException(run + " was deleted before it was finalized"));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.jenkinsci.fixtures;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.cps.CpsThreadGroup;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistence of the CPS program (program.dat) behind a running pipeline. Saving on demand is not public API: the
+ * program promise, the CPS VM executor and CpsThreadGroup.saveProgram() are looked up once, and if a workflow-cps update
+ * renames them we fail outright rather than measuring something else.
+ */
+public final class CpsProgramUtil {
+    static final Field PROGRAM_PROMISE;
+    static final Field RUNNER;
+    static final Method SAVE_PROGRAM;
+
+    static {
+        try {
+            PROGRAM_PROMISE = CpsFlowExecution.class.getDeclaredField("programPromise");
+            PROGRAM_PROMISE.setAccessible(true);
+            RUNNER = CpsThreadGroup.class.getDeclaredField("runner");
+            RUNNER.setAccessible(true);
+            SAVE_PROGRAM = CpsThreadGroup.class.getDeclaredMethod("saveProgram");
+            SAVE_PROGRAM.setAccessible(true);
+        } catch (NoSuchFieldException | NoSuchMethodException ex) {
+            throw new ExceptionInInitializerError("Unsupported workflow-cps version: " + ex);
+        }
+    }
+
+    private CpsProgramUtil() {
+        // Static utility
+    }
+
+    public static CpsFlowExecution getExecution(WorkflowRun run) {
+        FlowExecution execution = run.getExecution();
+        if (!(execution instanceof CpsFlowExecution)) {
+            throw new IllegalArgumentException("Not a CPS pipeline run, or not loaded: " + run);
+        }
+        return (CpsFlowExecution) execution;
+    }
+
+    public static File getProgramFile(WorkflowRun run) {
+        return new File(run.getRootDir(), "program.dat");
+    }
+
+    /** Serialize the program to program.dat now, on the CPS VM thread as CPS itself does, returning the file size */
+    @SuppressWarnings("unchecked")
+    public static long saveProgram(WorkflowRun run) throws Exception {
+        final CpsThreadGroup program = ((Future<CpsThreadGroup>) PROGRAM_PROMISE.get(getExecution(run))).get();
+        ExecutorService runner = (ExecutorService) RUNNER.get(program);
+        runner.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                SAVE_PROGRAM.invoke(program);
+                return null;
+            }
+        }).get();
+        return getProgramFile(run).length();
+    }
+
+    /**
+     * Wait for the program to be loaded and its running steps resumed, which after a restart is the point the run
+     * could make progress again.
+     * @return The innermost step executions, such as the step it was paused in
+     */
+    public static List<StepExecution> awaitResumed(WorkflowRun run, long timeout, TimeUnit unit) throws Exception {
+        return getExecution(run).getCurrentExecutions(true).get(timeout, unit);
+    }
+
+    /** Wait until the run reaches a step, for example the input step it will pause on */
+    public static FlowNode awaitStep(WorkflowRun run, final String functionName, long timeout, TimeUnit unit) throws Exception {
+        FlowExecution execution = run.getExecutionPromise().get(timeout, unit);
+        final SettableFuture<FlowNode> reached = SettableFuture.create();
+        execution.addListener(new GraphListener() {
+            @Override
+            public void onNewHead(FlowNode node) {
+                if (isStep(node, functionName)) {
+                    reached.set(node);
+                }
+            }
+        });
+        for (FlowNode head : execution.getCurrentHeads()) {  // Reached before we were listening
+            if (isStep(head, functionName)) {
+                reached.set(head);
+            }
+        }
+        return reached.get(timeout, unit);
+    }
+
+    static boolean isStep(FlowNode node, String functionName) {
+        if (!(node instanceof StepAtomNode)) {
+            return false;
+        }
+        StepDescriptor descriptor = ((StepAtomNode) node).getDescriptor();
+        return descriptor != null && functionName.equals(descriptor.getFunctionName());
+    }
+}
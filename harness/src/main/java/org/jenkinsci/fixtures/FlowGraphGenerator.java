@@ -0,0 +1,203 @@
+package org.jenkinsci.fixtures;
+
+import hudson.model.Action;
+import hudson.model.Result;
+import org.jenkinsci.plugins.workflow.actions.BodyInvocationAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepEndNode;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowEndNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.FlowStartNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the flow graph a {@link PipelineShape} would produce straight into a completed run's node storage, without
+ * running it: node for node what the CPS engine records (block steps as start and end nodes around body start and end
+ * nodes, parallel branches labelled as such, each echo an atom node), so stage view and the graph analysis code see a
+ * realistic graph of any size in a fraction of the time a build would take. Console logs are not generated.
+ * Start from a finished run of any pipeline (say a single echo): its graph is replaced by the generated one, which gets
+ * new node ids following the run's existing ones. Load the job again afterwards (see {@link JobFixture}) to read the
+ * graph back from disk rather than from the nodes still referenced in memory.
+ * The label action on parallel branches and the execution's flow heads are private to workflow-cps, so we reach them
+ * reflectively, and fail outright if that changes rather than writing graphs stage view can't recognize.
+ */
+public class FlowGraphGenerator {
+    static final Constructor<?> PARALLEL_LABEL;
+    static final Field HEADS;
+    static final Field HEAD_NODE;
+
+    static {
+        try {
+            PARALLEL_LABEL = Class.forName("org.jenkinsci.plugins.workflow.cps.steps.ParallelStepExecution$ParallelLabelAction")
+                    .getDeclaredConstructor(String.class);
+            PARALLEL_LABEL.setAccessible(true);
+            HEADS = CpsFlowExecution.class.getDeclaredField("heads");
+            HEADS.setAccessible(true);
+            if (!Map.class.isAssignableFrom(HEADS.getType())) {
+                throw new NoSuchFieldException("CpsFlowExecution.heads is no longer a map of FlowHeads");
+            }
+            HEAD_NODE = Class.forName("org.jenkinsci.plugins.workflow.cps.FlowHead").getDeclaredField("head");
+            HEAD_NODE.setAccessible(true);
+        } catch (ClassNotFoundException|NoSuchMethodException|NoSuchFieldException ex) {
+            throw new ExceptionInInitializerError("Unsupported workflow-cps version: " + ex);
+        }
+    }
+
+    final PipelineShape shape;
+    final Map<String, StepDescriptor> descriptors = new HashMap<String, StepDescriptor>();
+    CpsFlowExecution execution;
+    long nodesWritten;
+
+    public FlowGraphGenerator(PipelineShape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Replace the graph of a completed run with a generated one, and save the run pointing at it
+     * @return The end node of the new graph
+     */
+    public FlowNode generate(WorkflowRun run) throws Exception {
+        if (run.isBuilding() || !(run.getExecution() instanceof CpsFlowExecution)) {
+            throw new IllegalArgumentException("Need a completed CPS pipeline run, not " + run);
+        }
+        execution = (CpsFlowExecution) run.getExecution();
+        if (execution.getCurrentHeads().size() != 1) {
+            throw new IllegalStateException("Completed run should have a single head: " + run);
+        }
+        nodesWritten = 0;
+
+        FlowStartNode start = new FlowStartNode(execution, execution.iotaStr());
+        FlowNode tip = store(start);
+        for (int s = 0; s < shape.stages; s++) {
+            tip = stage("stage " + s, tip);
+        }
+        FlowEndNode end = new FlowEndNode(execution, execution.iotaStr(), start, Result.SUCCESS, tip);
+        store(end);
+
+        // getCurrentHeads() gives the head nodes, we need the FlowHead holding the one completed head
+        Object head = ((Map<?, ?>) HEADS.get(execution)).values().iterator().next();
+        HEAD_NODE.set(head, end);
+        run.save();  // Persists the new head and the execution's node counter with the run
+        FlowNodeStorageUtil.flushCache(run);
+        return end;
+    }
+
+    /** Nodes in the last generated graph */
+    public long getNodesWritten() {
+        return nodesWritten;
+    }
+
+    FlowNode stage(String name, FlowNode parent) throws Exception {
+        return block("stage", new LabelAction(name), parent, new Body() {
+            @Override
+            public FlowNode write(FlowNode tip) throws Exception {
+                return (shape.parallelBranches > 0) ? parallel(tip) : leaf(tip);
+            }
+        });
+    }
+
+    /** One body per branch, all starting from the parallel step and joined by its end node */
+    FlowNode parallel(FlowNode parent) throws Exception {
+        StepStartNode parallelStart = stepStart("parallel", parent);
+        store(parallelStart);
+        List<FlowNode> branchEnds = new ArrayList<FlowNode>();
+        for (int b = 0; b < shape.parallelBranches; b++) {
+            StepStartNode branchStart = stepStart("parallel", parallelStart);
+            store(branchStart, new BodyInvocationAction(), (Action) PARALLEL_LABEL.newInstance("branch " + b));
+            FlowNode tip = leaf(branchStart);
+            branchEnds.add(store(new StepEndNode(execution, branchStart, tip), new BodyInvocationAction()));
+        }
+        return store(new StepEndNode(execution, parallelStart, branchEnds));
+    }
+
+    /** Nested withEnv blocks, then the echo steps, then the node blocks */
+    FlowNode leaf(FlowNode parent) throws Exception {
+        return nested(0, parent);
+    }
+
+    FlowNode nested(final int depth, FlowNode parent) throws Exception {
+        if (depth < shape.nestingDepth) {
+            return block("withEnv", null, parent, new Body() {
+                @Override
+                public FlowNode write(FlowNode tip) throws Exception {
+                    return nested(depth + 1, tip);
+                }
+            });
+        }
+        FlowNode tip = parent;
+        for (int i = 0; i < shape.stepsPerStage; i++) {
+            tip = store(new StepAtomNode(execution, descriptor("echo"), tip));
+        }
+        for (int n = 0; n < shape.nodeBlocks; n++) {
+            tip = block("node", null, tip, new Body() {
+                @Override
+                public FlowNode write(FlowNode tip) throws Exception {
+                    return store(new StepAtomNode(execution, descriptor("echo"), tip));
+                }
+            });
+        }
+        return tip;
+    }
+
+    interface Body {
+        FlowNode write(FlowNode tip) throws Exception;
+    }
+
+    /** Step start, body start, the body, body end, step end: the five-part pattern every block-scoped step leaves */
+    FlowNode block(String function, Action startAction, FlowNode parent, Body body) throws Exception {
+        StepStartNode stepStart = stepStart(function, parent);
+        if (startAction != null) {
+            store(stepStart, startAction);
+        } else {
+            store(stepStart);
+        }
+        StepStartNode bodyStart = stepStart(function, stepStart);
+        store(bodyStart, new BodyInvocationAction());
+        FlowNode tip = body.write(bodyStart);
+        FlowNode bodyEnd = store(new StepEndNode(execution, bodyStart, tip), new BodyInvocationAction());
+        return store(new StepEndNode(execution, stepStart, bodyEnd));
+    }
+
+    StepStartNode stepStart(String function, FlowNode parent) {
+        return new StepStartNode(execution, descriptor(function), parent);
+    }
+
+    /** Adding an action saves the node with all its actions, so every node gets at least its timing */
+    FlowNode store(FlowNode node, Action... actions) {
+        node.addAction(new TimingAction());
+        for (Action a : actions) {
+            node.addAction(a);
+        }
+        nodesWritten++;
+        return node;
+    }
+
+    /** Looked up once per name, there is one lookup per generated step */
+    StepDescriptor descriptor(String functionName) {
+        StepDescriptor descriptor = descriptors.get(functionName);
+        if (descriptor == null) {
+            for (StepDescriptor d : StepDescriptor.all()) {
+                if (d.getFunctionName().equals(functionName)) {
+                    descriptor = d;
+                    descriptors.put(functionName, d);
+                }
+            }
+            if (descriptor == null) {
+                throw new IllegalStateException("No " + functionName + " step installed");
+            }
+        }
+        return descriptor;
+    }
+}
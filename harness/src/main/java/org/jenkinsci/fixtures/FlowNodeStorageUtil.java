@@ -0,0 +1,74 @@
+package org.jenkinsci.fixtures;
+
+import com.google.common.cache.Cache;
+import hudson.model.Job;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.support.storage.FlowNodeStorage;
+import org.jenkinsci.plugins.workflow.support.storage.SimpleXStreamFlowNodeStorage;
+
+import java.lang.reflect.Field;
+
+/**
+ * Access to the flow node storage behind a pipeline run, so benchmarks can measure it separately from the layers above.
+ * SimpleXStreamFlowNodeStorage has no API to drop its node cache, so we clear the private cache field: it's looked up once,
+ * and if a plugin update renames it we fail outright rather than quietly measuring warm reads as cold ones.
+ * Note loaded FlowNodes keep references to their parents, so for a fully cold graph reload the job instead (see {@link JobFixture}).
+ */
+public final class FlowNodeStorageUtil {
+    static final Field NODE_CACHE;
+
+    static {
+        NODE_CACHE = findField(SimpleXStreamFlowNodeStorage.class, "nodeCache");
+        if (NODE_CACHE == null) {
+            throw new ExceptionInInitializerError("SimpleXStreamFlowNodeStorage has no nodeCache field, unsupported workflow-support version");
+        }
+    }
+
+    private FlowNodeStorageUtil() {
+        // Static utility
+    }
+
+    static Field findField(Class<?> c, String name) {
+        try {
+            Field f = c.getDeclaredField(name);
+            f.setAccessible(true);
+            return f;
+        } catch (NoSuchFieldException ex) {
+            return null;
+        }
+    }
+
+    /** The storage holding the run's flow nodes */
+    public static FlowNodeStorage getStorage(WorkflowRun run) {
+        FlowExecution execution = run.getExecution();
+        if (!(execution instanceof CpsFlowExecution)) {
+            throw new IllegalArgumentException("Not a CPS pipeline run, or not loaded: " + run);
+        }
+        return ((CpsFlowExecution) execution).getStorage();
+    }
+
+    /** Drop the cached nodes of a run, so the next reads deserialize from disk */
+    public static void flushCache(WorkflowRun run) {
+        FlowNodeStorage storage = getStorage(run);
+        if (!(storage instanceof SimpleXStreamFlowNodeStorage)) {
+            throw new IllegalStateException("Don't know how to flush " + storage.getClass().getName());
+        }
+        try {
+            ((Cache) NODE_CACHE.get(storage)).invalidateAll();
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /** Drop the cached nodes of every loaded pipeline run of the job */
+    public static void flushCaches(Job<?, ?> job) {
+        for (Run<?, ?> run : job.getBuilds()) {
+            if (run instanceof WorkflowRun) {
+                flushCache((WorkflowRun) run);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.jenkinsci.fixtures;
+
+import hudson.model.Item;
+import hudson.model.Items;
+import hudson.model.TopLevelItem;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.harness.DirectoryCloner;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A job in a known state (typically with build history) saved once, then restored as often as needed by cloning its
+ * directory and loading the item again, which is far cheaper than re-running the builds before every invocation.
+ * Like everything in this package it uses Jenkins APIs, so it must only be used from the Jenkins-side benchmark instance;
+ * the org.jenkinsci.harness package is shared with the JMH side and can't see Jenkins classes.
+ */
+public class JobFixture {
+    final String jobName;
+    final File snapshotDir;
+
+    /** Completed builds are only ever replaced by Jenkins (AtomicFileWriter), never edited, so links are safe by default */
+    boolean hardLinks = true;
+
+    JobFixture(String jobName, File snapshotDir) {
+        this.jobName = jobName;
+        this.snapshotDir = snapshotDir;
+    }
+
+    /** Save the item's current state, kept under JENKINS_HOME so it goes away with the home */
+    public static JobFixture capture(TopLevelItem item) throws IOException {
+        File snapshotDir = new File(new File(Jenkins.getInstance().getRootDir(), "benchmark-fixtures"), item.getName());
+        FileUtils.deleteDirectory(snapshotDir);
+        item.save();
+        DirectoryCloner.cloneTree(item.getRootDir().toPath(), snapshotDir.toPath(), false);
+        return new JobFixture(item.getName(), snapshotDir);
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setHardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    /** Replace any current item of the same name with a fresh copy of the saved one */
+    public <T extends TopLevelItem> T restore(Class<T> type) throws IOException, InterruptedException {
+        Jenkins jenkins = Jenkins.getInstance();
+        Item existing = jenkins.getItemByFullName(jobName);
+        if (existing != null) {
+            existing.delete();
+        }
+        File jobDir = new File(new File(jenkins.getRootDir(), "jobs"), jobName);
+        DirectoryCloner.cloneTree(snapshotDir.toPath(), jobDir.toPath(), hardLinks);
+        TopLevelItem item = (TopLevelItem) Items.load(jenkins, jobDir);
+        jenkins.putItem(item);
+        return type.cast(item);
+    }
+
+    public void discard() throws IOException {
+        FileUtils.deleteDirectory(snapshotDir);
+    }
+}
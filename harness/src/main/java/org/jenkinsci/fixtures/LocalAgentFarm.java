@@ -0,0 +1,100 @@
+package org.jenkinsci.fixtures;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.util.Which;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local agents standing in for a real farm: each is a separate small JVM launched by a command launcher and talking
+ * remoting over stdin/stdout, so node blocks pay real channel overhead and contend for labelled executors.
+ * Agents only take work that asks for their label, the master's own executors are left alone.
+ */
+public class LocalAgentFarm {
+    final String label;
+    int agents = 1;
+    int executorsPerAgent = 1;
+    String jvmArgs = "-Xmx64m -XX:+UseSerialGC -XX:TieredStopAtLevel=1";
+    long connectTimeoutSeconds = 120;
+    final List<DumbSlave> started = new ArrayList<DumbSlave>();
+
+    public LocalAgentFarm(String label) {
+        this.label = label;
+    }
+
+    public LocalAgentFarm agents(int agents) {
+        this.agents = agents;
+        return this;
+    }
+
+    public LocalAgentFarm executorsPerAgent(int executorsPerAgent) {
+        this.executorsPerAgent = executorsPerAgent;
+        return this;
+    }
+
+    /** Options for each agent JVM, the defaults keep them small and quick to start */
+    public LocalAgentFarm jvmArgs(String jvmArgs) {
+        this.jvmArgs = jvmArgs;
+        return this;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public List<DumbSlave> getAgents() {
+        return Collections.unmodifiableList(started);
+    }
+
+    /** Add the agents and wait until all of them are online */
+    public void start() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        String remotingJar = Which.jarFile(hudson.remoting.Launcher.class).getAbsolutePath();
+        String command = "\"" + java + "\" " + jvmArgs + " -jar \"" + remotingJar + "\"";
+
+        long startTime = System.nanoTime();
+        List<Future<?>> connecting = new ArrayList<Future<?>>(agents);
+        for (int i=0; i<agents; i++) {
+            String name = label + "-" + i;
+            File remoteFs = new File(new File(jenkins.getRootDir(), "agents"), name);
+            DumbSlave agent = new DumbSlave(name, "Local benchmark agent", remoteFs.getAbsolutePath(),
+                    String.valueOf(executorsPerAgent), Node.Mode.EXCLUSIVE, label, new CommandLauncher(command),
+                    new RetentionStrategy.Always(), Collections.<NodeProperty<?>>emptyList());
+            jenkins.addNode(agent);
+            started.add(agent);
+            connecting.add(agent.toComputer().connect(false));
+        }
+        for (Future<?> f : connecting) {
+            f.get(connectTimeoutSeconds, TimeUnit.SECONDS);
+        }
+        for (DumbSlave agent : started) {
+            Computer c = agent.toComputer();
+            if (c == null || !c.isOnline()) {
+                throw new IllegalStateException("Agent did not come online: " + agent.getNodeName());
+            }
+        }
+        System.out.println(String.format("Started %d agents with %d executors each in %.1f s",
+                agents, executorsPerAgent, (System.nanoTime() - startTime) / 1e9));
+    }
+
+    /** Remove the agents, which disconnects them and kills their processes */
+    public void stop() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        for (DumbSlave agent : started) {
+            jenkins.removeNode(agent);
+        }
+        started.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package org.jenkinsci.fixtures;
+
+/**
+ * Generates CPS pipeline scripts of a chosen shape, to measure how costs scale along each dimension.
+ * Every stage is a block-scoped stage, optionally fanning out into parallel branches; each leaf (stage body or branch)
+ * is wrapped in nested withEnv blocks, then runs its echo steps followed by its node blocks.
+ * Repetition is done with Groovy loops, so the script size (and compile time) stays flat as counts grow.
+ */
+public class PipelineShape {
+    int stages = 1;
+    int parallelBranches = 0;
+    int nestingDepth = 0;
+    int stepsPerStage = 1;
+    int nodeBlocks = 0;
+    String nodeLabel = null;
+
+    public PipelineShape stages(int stages) {
+        this.stages = stages;
+        return this;
+    }
+
+    /** Branches per stage, 0 runs the stage body directly without a parallel step */
+    public PipelineShape parallelBranches(int parallelBranches) {
+        this.parallelBranches = parallelBranches;
+        return this;
+    }
+
+    /** Levels of nested blocks around each leaf */
+    public PipelineShape nestingDepth(int nestingDepth) {
+        this.nestingDepth = nestingDepth;
+        return this;
+    }
+
+    /** Echo steps per leaf */
+    public PipelineShape stepsPerStage(int stepsPerStage) {
+        this.stepsPerStage = stepsPerStage;
+        return this;
+    }
+
+    /** Separate node blocks (executor allocations) per leaf, each running one step */
+    public PipelineShape nodeBlocks(int nodeBlocks) {
+        this.nodeBlocks = nodeBlocks;
+        return this;
+    }
+
+    /** Label expression for the node blocks, null for any executor */
+    public PipelineShape nodeLabel(String nodeLabel) {
+        this.nodeLabel = nodeLabel;
+        return this;
+    }
+
+    public String toScript() {
+        StringBuilder script = new StringBuilder();
+        line(script, 0, "for (int s=0; s<" + stages + "; s++) {");
+        line(script, 1, "stage(\"stage $s\") {");
+        if (parallelBranches > 0) {
+            line(script, 2, "def branches = [:]");
+            line(script, 2, "for (int b=0; b<" + parallelBranches + "; b++) {");
+            line(script, 3, "branches[\"branch $b\"] = {");
+            appendLeaf(script, 4);
+            line(script, 3, "}");
+            line(script, 2, "}");
+            line(script, 2, "parallel branches");
+        } else {
+            appendLeaf(script, 2);
+        }
+        line(script, 1, "}");
+        line(script, 0, "}");
+        return script.toString();
+    }
+
+    void appendLeaf(StringBuilder script, int indent) {
+        for (int d = 0; d < nestingDepth; d++) {
+            line(script, indent + d, "withEnv([\"DEPTH_" + d + "=" + d + "\"]) {");
+        }
+        int inner = indent + nestingDepth;
+        if (stepsPerStage > 0) {
+            line(script, inner, "for (int i=0; i<" + stepsPerStage + "; i++) {");
+            line(script, inner + 1, "echo \"step $i\"");
+            line(script, inner, "}");
+        }
+        if (nodeBlocks > 0) {
+            line(script, inner, "for (int n=0; n<" + nodeBlocks + "; n++) {");
+            line(script, inner + 1, (nodeLabel == null ? "node" : "node('" + nodeLabel + "')") + " {");
+            line(script, inner + 2, "echo \"on node $n\"");
+            line(script, inner + 1, "}");
+            line(script, inner, "}");
+        }
+        for (int d = nestingDepth - 1; d >= 0; d--) {
+            line(script, indent + d, "}");
+        }
+    }
+
+    static void line(StringBuilder script, int indent, String text) {
+        for (int i = 0; i < indent; i++) {
+            script.append("    ");
+        }
+        script.append(text).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return "stages=" + stages + ", parallelBranches=" + parallelBranches + ", nestingDepth=" + nestingDepth
+                + ", stepsPerStage=" + stepsPerStage + ", nodeBlocks=" + nodeBlocks;
+    }
+}
@@ -0,0 +1,44 @@
+package org.jenkinsci.fixtures;
+
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Records how long queue items wait, from entering the queue until an executor takes them. Cancelled items are skipped.
+ * Flyweight tasks (pipeline runs themselves) can be left out, leaving only real executor allocations such as node blocks.
+ */
+public class QueueLatencyRecorder extends QueueListener {
+    final Histogram latencyMillis = new Histogram(3);
+    final boolean includeFlyweight;
+
+    QueueLatencyRecorder(boolean includeFlyweight) {
+        this.includeFlyweight = includeFlyweight;
+    }
+
+    /** Start recording, call {@link #uninstall()} when done */
+    public static QueueLatencyRecorder install(boolean includeFlyweight) {
+        QueueLatencyRecorder recorder = new QueueLatencyRecorder(includeFlyweight);
+        QueueListener.all().add(recorder);
+        return recorder;
+    }
+
+    public void uninstall() {
+        QueueListener.all().remove(this);
+    }
+
+    @Override
+    public synchronized void onLeft(Queue.LeftItem li) {
+        if (li.isCancelled() || (!includeFlyweight && li.task instanceof Queue.FlyweightTask)) {
+            return;
+        }
+        latencyMillis.recordValue(Math.max(0, System.currentTimeMillis() - li.getInQueueSince()));
+    }
+
+    /** Everything recorded since the last drain */
+    public synchronized Histogram drain() {
+        Histogram copy = latencyMillis.copy();
+        latencyMillis.reset();
+        return copy;
+    }
+}
@@ -0,0 +1,74 @@
+package org.jenkinsci.fixtures;
+
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import jenkins.util.AtmostOneTaskExecutor;
+import org.HdrHistogram.Histogram;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the queue maintenance passes Jenkins runs by itself, without adding any: Queue.scheduleMaintenance() hands
+ * maintain() to an AtmostOneTaskExecutor, and we wrap that executor's task with a timer. The periodic MaintainTask calls
+ * maintain() directly and isn't seen, but that's one pass every few seconds against the many scheduled as builds come and go.
+ * Neither field is API, so they're looked up once, and if core renames them we fail outright rather than record nothing.
+ */
+public class QueueMaintainRecorder {
+    static final Field MAINTAINER;
+    static final Field TASK;
+
+    static {
+        try {
+            MAINTAINER = Queue.class.getDeclaredField("maintainerThread");
+            MAINTAINER.setAccessible(true);
+            TASK = AtmostOneTaskExecutor.class.getDeclaredField("task");
+            TASK.setAccessible(true);
+        } catch (NoSuchFieldException ex) {
+            throw new ExceptionInInitializerError("Unsupported Jenkins version: " + ex);
+        }
+    }
+
+    final Histogram maintainMicros = new Histogram(3);
+    final Object maintainer;
+    final Callable<?> original;
+
+    QueueMaintainRecorder(Object maintainer, Callable<?> original) {
+        this.maintainer = maintainer;
+        this.original = original;
+    }
+
+    /** Start recording, call {@link #uninstall()} when done */
+    public static QueueMaintainRecorder install() throws IllegalAccessException {
+        Object maintainer = MAINTAINER.get(Jenkins.getInstance().getQueue());
+        final QueueMaintainRecorder recorder = new QueueMaintainRecorder(maintainer, (Callable<?>) TASK.get(maintainer));
+        TASK.set(maintainer, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return recorder.original.call();
+                } finally {
+                    recorder.record(System.nanoTime() - start);
+                }
+            }
+        });
+        return recorder;
+    }
+
+    public void uninstall() throws IllegalAccessException {
+        TASK.set(maintainer, original);
+    }
+
+    synchronized void record(long nanos) {
+        maintainMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /** Everything recorded since the last drain, in microseconds */
+    public synchronized Histogram drain() {
+        Histogram copy = maintainMicros.copy();
+        maintainMicros.reset();
+        return copy;
+    }
+}
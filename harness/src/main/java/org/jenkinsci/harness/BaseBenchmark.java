@@ -1,50 +1,157 @@
 package org.jenkinsci.harness;
 
+import java.lang.reflect.Field;
+
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 
 /**
- * Extend me to create a basic jenkins benchmark, and create benchmark-annotated methods
+ * Extend me to create a basic jenkins benchmark, and create benchmark-annotated methods.
+ * JMH drives this instance, while {@link #actualRunnable} is a second instance of the same class loaded inside Jenkins:
+ * the lifecycle hooks below are called on that one, so they can use Jenkins APIs directly.
  */
 @State(Scope.Benchmark)
 public abstract class BaseBenchmark {
     public JenkinsMaskedClassesRunner maskedClassesRunner = new JenkinsMaskedClassesRunner();
     public BaseBenchmark actualRunnable;
 
+    /** Plugin versions to run with, pass several (-p pluginSet=default,stock) to compare them, see {@link PluginSetReport} */
+    @Param({JenkinsMaskedClassesRunner.DEFAULT_PLUGIN_SET})
+    public String pluginSet;
+
     public abstract Class<? extends BaseBenchmark> getTestClass();
 
     @Setup(Level.Trial)
     public void setup() throws Exception {
+        maskedClassesRunner.setPluginSet(pluginSet);
         maskedClassesRunner.startup();
+        ResultsStore.recordEnvironment(pluginSet, maskedClassesRunner.getVersions());
+        createActualRunnable();
+        actualRunnable.setupTrial();
+    }
+
+    void createActualRunnable() throws Exception {
         Class c = maskedClassesRunner.testLoader.loadClass(getTestClass().getName());
         Object o = c.newInstance();
         actualRunnable = (BaseBenchmark) (o);
+        actualRunnable.maskedClassesRunner = maskedClassesRunner;  // Lets the Jenkins-side instance find the URL, home, etc
+        copyParams();
+    }
+
+    /**
+     * Restart Jenkins on the same home, then create a fresh Jenkins-side instance with the same params: its fields are
+     * not carried over (setupTrial is not re-run) and invokers bound before the restart must be bound again.
+     * @return Nanoseconds the new Jenkins took to start and initialize
+     */
+    protected long restartJenkins() throws Exception {
+        long elapsed = maskedClassesRunner.restart();
+        createActualRunnable();
+        return elapsed;
+    }
+
+    /** JMH only injects @Param values into this instance, so hand them on to the Jenkins-side one */
+    void copyParams() throws Exception {
+        for (Class<?> c = getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (f.isAnnotationPresent(Param.class)) {
+                    Field target = findField(actualRunnable.getClass(), f.getName());
+                    f.setAccessible(true);
+                    target.setAccessible(true);
+                    Object value = f.get(this);
+                    if (value instanceof Enum) {  // Enum types are loaded twice too, map by name
+                        value = Enum.valueOf((Class) target.getType(), ((Enum) value).name());
+                    }
+                    target.set(actualRunnable, value);
+                }
+            }
+        }
+    }
+
+    static Field findField(Class<?> c, String name) throws NoSuchFieldException {
+        for (Class<?> current = c; current != null; current = current.getSuperclass()) {
+            try {
+                return current.getDeclaredField(name);
+            } catch (NoSuchFieldException ex) {
+                // Keep looking in superclasses
+            }
+        }
+        throw new NoSuchFieldException(name);
     }
 
     @TearDown(Level.Trial)
     public void teardown() throws Exception {
-        maskedClassesRunner.shutdown();
+        try {
+            if (actualRunnable != null) {
+                actualRunnable.tearDownTrial();
+            }
+        } finally {
+            maskedClassesRunner.shutdown();
+        }
+    }
+
+    /** Bind a public no-arg method of the Jenkins-side instance, for calls outside the measured path, see {@link MeasuredOperation} */
+    protected BenchmarkInvoker bindInvoker(String methodName) throws Exception {
+        return BenchmarkInvoker.bind(actualRunnable, methodName);
+    }
+
+    /** Override me to provide some per-trial behavior using internals of this benchmark, runs once Jenkins is up */
+    public void setupTrial() {
+        // NO-OP
+    }
+
+    /** Override me to provide some per-trial behavior using internals of this benchmark, runs before Jenkins shuts down */
+    public void tearDownTrial() {
+        // NO-OP
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIterationInvoker() throws Exception {
+        actualRunnable.setupIteration();  // Indirection due to classloading fun
+    }
+
+    /** Override me to provide some per-iteration behavior using internals of this benchmark */
+    public void setupIteration() {
+        // NO-OP
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIterationInvoker() throws Exception {
+        actualRunnable.tearDownIteration();  // Indirection due to classloading fun
+    }
+
+    /** Override me to provide some per-iteration behavior using internals of this benchmark */
+    public void tearDownIteration() {
+        // NO-OP
     }
 
     @Setup(Level.Invocation)  // Invocation-level for cases where you're testing for a test interval
     public void setupInvocationInvoker() throws Exception {
+        JvmSampler.Snapshot before = JvmProfiler.isActive() ? JvmSampler.take() : null;
         actualRunnable.setupInvocation();  // Indirection due to classloading fun
+        if (before != null) {
+            JvmProfiler.exclude(before);  // Setup isn't part of the operation
+        }
     }
 
-    /** Override me to provide some per-iteration behavior using internals of this benchmark */
+    /** Override me to provide some per-invocation behavior using internals of this benchmark */
     public void setupInvocation(){
         // NO-OP
     }
 
     @TearDown(Level.Invocation)  // Invocation-level for cases where you're testing for a test interval
     public void tearDownInvocationInvoker() throws Exception {
+        JvmSampler.Snapshot before = JvmProfiler.isActive() ? JvmSampler.take() : null;
         actualRunnable.tearDownInvocation();  // Indirection due to classloading fun
+        if (before != null) {
+            JvmProfiler.exclude(before);
+        }
     }
 
-    /** Override me to provide some per-iteration behavior using internals of this benchmark */
+    /** Override me to provide some per-invocation behavior using internals of this benchmark */
     public void tearDownInvocation(){
         // NO-OP, override me to provide some per-iteration behavior
     }
@@ -0,0 +1,39 @@
+package org.jenkinsci.harness;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Calls a public no-arg method of the Jenkins-side benchmark instance from the JMH side.
+ * The test class is loaded twice (by JMH and inside Jenkins) so the copies can't be cast to each other; this binds a
+ * method handle once for setup-time calls. A handle held in an instance field is not a JIT constant, so measured
+ * operations go through {@link MeasuredOperation} instead.
+ */
+public final class BenchmarkInvoker {
+    final MethodHandle handle;
+
+    BenchmarkInvoker(MethodHandle handle) {
+        this.handle = handle;
+    }
+
+    /** Bind the named method on target, void methods return null and primitives come back boxed */
+    public static BenchmarkInvoker bind(Object target, String methodName) throws NoSuchMethodException, IllegalAccessException {
+        Method method = target.getClass().getMethod(methodName);
+        MethodHandle handle = MethodHandles.publicLookup().unreflect(method)
+                .bindTo(target)
+                .asType(MethodType.methodType(Object.class));
+        return new BenchmarkInvoker(handle);
+    }
+
+    public Object invoke() throws Exception {
+        try {
+            return (Object) handle.invokeExact();
+        } catch (Exception|Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.Profiler;
+import org.openjdk.jmh.profile.StackProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.format.OutputFormat;
+import org.openjdk.jmh.runner.format.OutputFormatFactory;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+/**
+ * One entry point for every suite: finds the BaseBenchmark subclasses JMH generated benchmarks for, runs the ones
+ * matching the given globs, then saves and checks results through {@link ResultsStore}.
+ * Each suite's own settings come from its JMH annotations (@BenchmarkMode, @Warmup, @Measurement...), which is the
+ * "full" profile; anything given here overrides them. Options, on the command line or as keys of a properties file
+ * passed with --profile-file (the command line wins):
+ * <pre>
+ *   SUITE_GLOB...              simple or qualified class names, * and ? wildcards, default all suites
+ *   --profile smoke|full       smoke: no warmup, one short iteration, first value of every param
+ *   -p name=v1,v2              param override, may repeat
+ *   --wi N --w TIME            warmup iterations and time per iteration (e.g. 30s; units ns us ms s m h d)
+ *   --i N --r TIME             measurement iterations and time per iteration
+ *   --f N                      forks
+ *   --budget TIME              cap on warmup plus measurement time for each benchmark and param combination
+ *   --prof a,b                 profilers: stack, gc, jvm, metrics, jfr or a class name
+ *   --soak DURATION            run one suite for this long (e.g. 4h) in this JVM, see {@link SoakRunner}
+ *   --soak-interval TIME       how often the soak samples, default 1m
+ *   --jvmArgs "ARGS"           extra options for the forked JVMs, space separated
+ *   --list                     list the suites found and exit
+ * </pre>
+ * Suites run one at a time, so params with the same name in different suites don't clash.
+ */
+public class BenchmarkLauncher {
+    static final Map<String, String> PROFILERS = new LinkedHashMap<String, String>();
+
+    static {
+        PROFILERS.put("stack", StackProfiler.class.getName());
+        PROFILERS.put("gc", GCProfiler.class.getName());
+        PROFILERS.put("jvm", JvmProfiler.class.getName());
+        PROFILERS.put("metrics", MetricsProfiler.class.getName());
+        PROFILERS.put("jfr", JfrProfiler.class.getName());
+    }
+
+    /** Time units we accept, JMH's own TimeValue.fromString wants "hr" and "day" where people write 4h */
+    static final Map<String, TimeUnit> TIME_UNITS = new LinkedHashMap<String, TimeUnit>();
+    static final Pattern TIME = Pattern.compile("(\\d+)\\s*([a-z]*)");
+
+    static {
+        TIME_UNITS.put("ns", TimeUnit.NANOSECONDS);
+        TIME_UNITS.put("us", TimeUnit.MICROSECONDS);
+        TIME_UNITS.put("ms", TimeUnit.MILLISECONDS);
+        TIME_UNITS.put("", TimeUnit.SECONDS);
+        TIME_UNITS.put("s", TimeUnit.SECONDS);
+        TIME_UNITS.put("m", TimeUnit.MINUTES);
+        TIME_UNITS.put("min", TimeUnit.MINUTES);
+        TIME_UNITS.put("h", TimeUnit.HOURS);
+        TIME_UNITS.put("hr", TimeUnit.HOURS);
+        TIME_UNITS.put("d", TimeUnit.DAYS);
+        TIME_UNITS.put("day", TimeUnit.DAYS);
+    }
+
+    final Properties settings = new Properties();
+    final Map<String, String[]> paramOverrides = new LinkedHashMap<String, String[]>();
+    final List<String> globs = new ArrayList<String>();
+    boolean listOnly = false;
+
+    /** Run a single suite from its own main, with any further options given */
+    public static void run(Class<? extends BaseBenchmark> suite, String[] args) throws Exception {
+        List<String> all = new ArrayList<String>();
+        all.add(suite.getName());
+        all.addAll(Arrays.asList(args));
+        main(all.toArray(new String[all.size()]));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode;
+        try {
+            BenchmarkLauncher launcher = new BenchmarkLauncher();
+            launcher.parse(args);
+            exitCode = launcher.launch() ? 0 : 1;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            exitCode = 1;
+        }
+        System.exit(exitCode);  // Jenkins leaves non-daemon threads behind
+    }
+
+    void parse(String[] args) throws IOException {
+        Properties commandLine = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--list")) {
+                listOnly = true;
+            } else if (arg.equals("-p")) {
+                addParam(args[++i]);
+            } else if (arg.equals("--profile-file")) {
+                try (InputStream in = new FileInputStream(new File(args[++i]))) {
+                    settings.load(in);
+                }
+            } else if (arg.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("No value for " + arg);
+                }
+                commandLine.setProperty(arg.substring(2), args[++i]);
+            } else {
+                globs.add(arg);
+            }
+        }
+        settings.putAll(commandLine);
+        for (String key : settings.stringPropertyNames()) {  // Params from a profile file, as p.NAME=v1,v2
+            if (key.startsWith("p.") && !paramOverrides.containsKey(key.substring(2))) {
+                addParam(key.substring(2) + "=" + settings.getProperty(key));
+            }
+        }
+        if (globs.isEmpty() && settings.getProperty("include") != null) {
+            globs.addAll(Arrays.asList(settings.getProperty("include").split(",")));
+        }
+    }
+
+    void addParam(String assignment) {
+        int eq = assignment.indexOf('=');
+        if (eq < 0) {
+            throw new IllegalArgumentException("Expected -p name=value[,value...]: " + assignment);
+        }
+        paramOverrides.put(assignment.substring(0, eq), assignment.substring(eq + 1).split(","));
+    }
+
+    /** Suites with generated benchmarks, matching the globs */
+    List<Class<?>> findSuites() throws ClassNotFoundException {
+        OutputFormat out = OutputFormatFactory.createFormatInstance(System.out, VerboseMode.SILENT);
+        TreeSet<String> classNames = new TreeSet<String>();
+        for (BenchmarkListEntry entry : BenchmarkList.defaultList().getAll(out, new ArrayList<String>())) {
+            classNames.add(entry.getUserClassQName());
+        }
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String glob : globs) {
+            patterns.add(globToPattern(glob.trim()));
+        }
+        List<Class<?>> suites = new ArrayList<Class<?>>();
+        for (String name : classNames) {
+            Class<?> c = Class.forName(name, false, BenchmarkLauncher.class.getClassLoader());
+            if (!BaseBenchmark.class.isAssignableFrom(c)) {
+                continue;
+            }
+            boolean matched = patterns.isEmpty();
+            for (Pattern p : patterns) {
+                matched |= p.matcher(name).matches() || p.matcher(c.getSimpleName()).matches();
+            }
+            if (matched) {
+                suites.add(c);
+            }
+        }
+        return suites;
+    }
+
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char ch : glob.toCharArray()) {
+            if (ch == '*') {
+                regex.append(".*");
+            } else if (ch == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /** @return false if anything regressed against the baseline */
+    boolean launch() throws Exception {
+        List<Class<?>> suites = findSuites();
+        if (suites.isEmpty()) {
+            throw new IllegalArgumentException("No benchmark suites match " + globs);
+        }
+        if (listOnly) {
+            for (Class<?> suite : suites) {
+                System.out.println(suite.getName() + " " + params(suite).keySet());
+            }
+            return true;
+        }
+        checkParamOverrides(suites);
+        if (settings.getProperty("soak") != null) {
+            return soak(suites);
+        }
+        String profile = settings.getProperty("profile", "full");
+        if (!profile.equals("smoke") && !profile.equals("full")) {
+            throw new IllegalArgumentException("Unknown profile " + profile + ", use smoke or full");
+        }
+
+        ResultsStore store = new ResultsStore();
+        List<RunResult> results = new ArrayList<RunResult>();
+        for (Class<?> suite : suites) {
+            System.out.println("Running " + suite.getName() + " with the " + profile + " profile");
+            results.addAll(new Runner(options(suite, profile, store).build()).run());
+        }
+        PluginSetReport.print(results, System.out);
+        store.save(results);
+        return store.checkAgainstBaseline();
+    }
+
+    /** A -p for a param none of the suites has would be dropped, running the whole default matrix instead: fail first */
+    void checkParamOverrides(List<Class<?>> suites) {
+        Set<String> declared = new TreeSet<String>();
+        for (Class<?> suite : suites) {
+            declared.addAll(params(suite).keySet());
+        }
+        Set<String> unknown = new TreeSet<String>(paramOverrides.keySet());
+        unknown.removeAll(declared);
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("No suite matching " + globs + " has param " + unknown + ", they have " + declared);
+        }
+    }
+
+    /** Soak runs in this JVM, so only one suite at a time: leaks from one would be blamed on the next */
+    boolean soak(List<Class<?>> suites) throws Exception {
+        if (suites.size() != 1) {
+            throw new IllegalArgumentException("Soak one suite at a time, " + globs + " matches " + suites);
+        }
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String[]> param : paramOverrides.entrySet()) {
+            if (param.getValue().length != 1) {
+                throw new IllegalArgumentException("Soak runs a single param combination, give one value for " + param.getKey());
+            }
+            params.put(param.getKey(), param.getValue()[0]);
+        }
+        TimeValue duration = timeSetting("soak");
+        TimeValue interval = timeSetting("soak-interval");
+        long intervalMillis = (interval != null) ? interval.convertTo(TimeUnit.MILLISECONDS) : TimeUnit.MINUTES.toMillis(1);
+
+        ResultsStore store = new ResultsStore();
+        System.setProperty(ResultsStore.RUN_DIR_PROPERTY, store.getRunDir().getAbsolutePath());
+        System.out.println("Soaking " + suites.get(0).getName() + " for " + duration);
+        SoakRunner soak = new SoakRunner(suites.get(0), duration.convertTo(TimeUnit.MILLISECONDS), intervalMillis,
+                TimeUnit.MILLISECONDS, params);
+        return soak.run(store.getRunDir());
+    }
+
+    ChainedOptionsBuilder options(Class<?> suite, String profile, ResultsStore store) throws Exception {
+        ChainedOptionsBuilder opt = new OptionsBuilder()
+                .include("^" + Pattern.quote(suite.getName()) + "\\.")
+                .threads(1)
+                .shouldFailOnError(true)
+                .shouldDoGC(true)
+                .jvmArgsAppend(store.forkJvmArg());
+        if (profile.equals("smoke")) {
+            opt.warmupIterations(0)
+                    .measurementIterations(1)
+                    .measurementTime(TimeValue.seconds(10))
+                    .forks(1);
+        }
+
+        Integer warmupIterations = intSetting("wi");
+        Integer iterations = intSetting("i");
+        TimeValue warmupTime = timeSetting("w");
+        TimeValue iterationTime = timeSetting("r");
+        TimeValue budget = timeSetting("budget");
+        if (budget != null) {  // Split the budget evenly over every iteration
+            int wi = (warmupIterations != null) ? warmupIterations : annotatedWarmupIterations(suite, profile);
+            int i = (iterations != null) ? iterations : annotatedIterations(suite, profile);
+            long perIteration = budget.convertTo(TimeUnit.MILLISECONDS) / Math.max(1, wi + i);
+            warmupTime = iterationTime = TimeValue.milliseconds(Math.max(1, perIteration));
+        }
+        if (warmupIterations != null) {
+            opt.warmupIterations(warmupIterations);
+        }
+        if (warmupTime != null) {
+            opt.warmupTime(warmupTime);
+        }
+        if (iterations != null) {
+            opt.measurementIterations(iterations);
+        }
+        if (iterationTime != null) {
+            opt.measurementTime(iterationTime);
+        }
+        String jvmArgs = settings.getProperty("jvmArgs");
+        if (jvmArgs != null && !jvmArgs.trim().isEmpty()) {
+            opt.jvmArgsAppend(jvmArgs.trim().split("\\s+"));
+        }
+        Integer forks = intSetting("f");
+        if (forks != null) {
+            opt.forks(forks);
+        }
+
+        for (Class<? extends Profiler> profiler : profilers(suite)) {
+            opt.addProfiler(profiler);
+        }
+
+        for (Map.Entry<String, String[]> param : params(suite).entrySet()) {
+            String[] values = paramOverrides.get(param.getKey());
+            if (values != null) {
+                opt.param(param.getKey(), values);
+            } else if (profile.equals("smoke") && param.getValue().length > 0) {
+                opt.param(param.getKey(), param.getValue()[0]);
+            }
+        }
+        return opt;
+    }
+
+    Integer intSetting(String key) {
+        String value = settings.getProperty(key);
+        return (value == null) ? null : Integer.valueOf(value);
+    }
+
+    TimeValue timeSetting(String key) {
+        String value = settings.getProperty(key);
+        return (value == null) ? null : parseTime(key, value);
+    }
+
+    static TimeValue parseTime(String key, String value) {
+        Matcher m = TIME.matcher(value.trim().toLowerCase(Locale.ENGLISH));
+        if (!m.matches() || !TIME_UNITS.containsKey(m.group(2))) {
+            throw new IllegalArgumentException("--" + key + " " + value + " is not a time, give a number and one of ns us ms s m h d");
+        }
+        return new TimeValue(Long.parseLong(m.group(1)), TIME_UNITS.get(m.group(2)));
+    }
+
+    static int annotatedWarmupIterations(Class<?> suite, String profile) {
+        Warmup warmup = suite.getAnnotation(Warmup.class);
+        return profile.equals("smoke") ? 0 : (warmup != null && warmup.iterations() >= 0) ? warmup.iterations() : 20;
+    }
+
+    static int annotatedIterations(Class<?> suite, String profile) {
+        Measurement measurement = suite.getAnnotation(Measurement.class);
+        return profile.equals("smoke") ? 1 : (measurement != null && measurement.iterations() >= 0) ? measurement.iterations() : 20;
+    }
+
+    /** Metrics always, then the suite's defaults, then those asked for */
+    @SuppressWarnings("unchecked")
+    List<Class<? extends Profiler>> profilers(Class<?> suite) throws ClassNotFoundException {
+        List<Class<? extends Profiler>> profilers = new ArrayList<Class<? extends Profiler>>();
+        profilers.add(MetricsProfiler.class);
+        DefaultProfilers defaults = suite.getAnnotation(DefaultProfilers.class);
+        if (defaults != null) {
+            for (Class<? extends Profiler> p : defaults.value()) {
+                if (!profilers.contains(p)) {
+                    profilers.add(p);
+                }
+            }
+        }
+        String requested = settings.getProperty("prof");
+        if (requested != null) {
+            for (String name : requested.split(",")) {
+                String className = PROFILERS.containsKey(name.trim()) ? PROFILERS.get(name.trim()) : name.trim();
+                Class<? extends Profiler> p = (Class<? extends Profiler>) Class.forName(className);
+                if (!profilers.contains(p)) {
+                    profilers.add(p);
+                }
+            }
+        }
+        return profilers;
+    }
+
+    /** Every @Param of the suite, including inherited ones, with its declared values */
+    static Map<String, String[]> params(Class<?> suite) {
+        Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        for (Class<?> c = suite; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                Param param = f.getAnnotation(Param.class);
+                if (param != null && !params.containsKey(f.getName())) {
+                    params.put(f.getName(), param.value());
+                }
+            }
+        }
+        return params;
+    }
+}
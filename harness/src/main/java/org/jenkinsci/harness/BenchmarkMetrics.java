@@ -0,0 +1,50 @@
+package org.jenkinsci.harness;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measurements beyond the time JMH takes itself (latency percentiles, throughput, etc), reported as secondary results
+ * for each iteration when the benchmark runs with {@link MetricsProfiler}. This class is shared across the classloader
+ * boundary, so the Jenkins-side benchmark instance can record here too.
+ */
+public final class BenchmarkMetrics {
+
+    static final class Metric {
+        final String unit;
+        double sum = 0;
+        long count = 0;
+
+        Metric(String unit) {
+            this.unit = unit;
+        }
+
+        double mean() {
+            return sum / count;
+        }
+    }
+
+    static final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+    private BenchmarkMetrics() {
+        // Static registry
+    }
+
+    /** Record a value, if recorded more than once per iteration the mean is reported */
+    public static synchronized void record(String label, double value, String unit) {
+        Metric m = metrics.get(label);
+        if (m == null) {
+            m = new Metric(unit);
+            metrics.put(label, m);
+        }
+        m.sum += value;
+        m.count++;
+    }
+
+    /** Everything recorded since the last drain */
+    static synchronized Map<String, Metric> drain() {
+        Map<String, Metric> drained = new LinkedHashMap<String, Metric>(metrics);
+        metrics.clear();
+        return drained;
+    }
+}
@@ -0,0 +1,16 @@
+package org.jenkinsci.harness;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import org.openjdk.jmh.profile.Profiler;
+
+/** Profilers {@link BenchmarkLauncher} always adds for a suite, on top of any asked for on the command line */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface DefaultProfilers {
+    Class<? extends Profiler>[] value();
+}
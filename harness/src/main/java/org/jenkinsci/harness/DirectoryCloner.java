@@ -0,0 +1,57 @@
+package org.jenkinsci.harness;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/** Recursive directory copy which can share file contents via hard links instead of copying bytes */
+public final class DirectoryCloner {
+
+    private DirectoryCloner() {
+        // Static utility
+    }
+
+    /**
+     * Clone everything under source into target, preserving modification times (Jenkins uses them to decide whether to re-explode plugins).
+     * With hardLink set, files are linked rather than copied, falling back to a copy where links aren't possible (different filesystem, etc).
+     * Only link content that is never rewritten in place, or the source gets modified along with the clone.
+     */
+    public static void cloneTree(final Path source, final Path target, final boolean hardLink) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path dest = target.resolve(source.relativize(file));
+                if (hardLink) {
+                    try {
+                        Files.createLink(dest, file);
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException|UnsupportedOperationException ex) {
+                        // No link support here, copy instead
+                    }
+                }
+                Files.copy(file, dest, StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                // Writing the children bumped the directory timestamp, put it back
+                Files.setLastModifiedTime(target.resolve(source.relativize(dir)), Files.getLastModifiedTime(dir));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * An already-initialized JENKINS_HOME kept on disk as a template, keyed by a fingerprint of the core WAR and plugin set.
+ * Cloning it gives a trial a home with plugins already staged and exploded, rather than redoing that on every startup.
+ */
+public class HomeSnapshot {
+    /** Written last when capturing, so a half-written template (killed fork) is never used */
+    static final String COMPLETE_MARKER = ".snapshot-complete";
+
+    final File templateDir;
+
+    public HomeSnapshot(File snapshotRoot, String fingerprint) {
+        this.templateDir = new File(snapshotRoot, fingerprint);
+    }
+
+    /** Fingerprint the WAR and plugin archives by name, size and modification time, cheap and enough to spot a changed dependency */
+    public static String fingerprint(String war, Collection<File> pluginArchives) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        List<File> files = new ArrayList<File>(pluginArchives);
+        Collections.sort(files);
+        if (war != null) {
+            files.add(0, new File(war));
+        }
+        for (File f : files) {
+            String entry = f.getAbsolutePath() + ':' + f.length() + ':' + f.lastModified() + '\n';
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    public File getTemplateDir() {
+        return templateDir;
+    }
+
+    public boolean isAvailable() {
+        return new File(templateDir, COMPLETE_MARKER).isFile();
+    }
+
+    /** Populate a new home from the template */
+    public void cloneTo(File home) throws IOException {
+        File[] contents = templateDir.listFiles();
+        if (contents == null) {
+            throw new IOException("Snapshot template is missing: " + templateDir);
+        }
+        for (File f : contents) {
+            if (f.getName().equals(COMPLETE_MARKER)) {
+                continue;
+            }
+            // Plugin archives & exploded plugins are only ever replaced, never edited, so they're safe to share via hard links
+            // Everything else is a real copy so that one trial can't leak state into the template
+            DirectoryCloner.cloneTree(f.toPath(), new File(home, f.getName()).toPath(), f.getName().equals("plugins"));
+        }
+    }
+
+    /** Save an initialized home as the template, unless a concurrent fork got there first */
+    public void capture(File home) throws IOException {
+        File staging = new File(templateDir.getParentFile(), templateDir.getName() + "." + UUID.randomUUID() + ".tmp");
+        DirectoryCloner.cloneTree(home.toPath(), staging.toPath(), false);
+        new File(staging, COMPLETE_MARKER).createNewFile();
+        try {
+            Files.move(staging.toPath(), templateDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Captured JENKINS_HOME snapshot to " + templateDir);
+        } catch (IOException ex) {
+            // Someone else captured the same fingerprint, theirs is just as good
+            FileUtils.deleteDirectory(staging);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.jenkinsci.harness;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Issues HTTP GETs against a set of URLs from several client threads for a fixed duration, recording latencies in an HDR histogram.
+ * Connections are kept alive between requests, as a browser would. With a target rate each request has an intended send
+ * time and its latency is counted from then, so a stall is charged to every request it held up (coordinated omission);
+ * without one, each client sends back to back and the numbers are plain service times.
+ */
+public class HttpLoadGenerator {
+    static {
+        // The JDK keeps only 5 idle connections per host by default, too few for many clients (read once, before first use)
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", "256");
+        }
+    }
+
+    final List<URL> targets;
+    int threads = 1;
+    double targetRate = 0;
+    long durationNanos = TimeUnit.SECONDS.toNanos(10);
+
+    public HttpLoadGenerator(List<URL> targets) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No URLs to load");
+        }
+        this.targets = new ArrayList<URL>(targets);
+    }
+
+    public HttpLoadGenerator threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /** Requests per second across all threads, 0 for closed-loop clients that send as fast as responses come back */
+    public HttpLoadGenerator targetRate(double requestsPerSecond) {
+        this.targetRate = requestsPerSecond;
+        return this;
+    }
+
+    public HttpLoadGenerator duration(long duration, TimeUnit unit) {
+        this.durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    public LoadResult run() throws InterruptedException {
+        final long start = System.nanoTime();
+        final long end = start + durationNanos;
+        final long intervalNanos = (targetRate > 0) ? (long) (threads * TimeUnit.SECONDS.toNanos(1) / targetRate) : 0;
+        final AtomicLong errors = new AtomicLong();
+        final Histogram[] histograms = new Histogram[threads];
+        Thread[] clients = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            histograms[t] = new Histogram(3);
+            clients[t] = new Thread("http-load-client-" + t) {
+                @Override
+                public void run() {
+                    Histogram histogram = histograms[index];
+                    long intended = start + index * intervalNanos / threads;  // Stagger clients across the interval
+                    int next = index;
+                    while (true) {
+                        long sendTime;
+                        if (intervalNanos > 0) {
+                            if (intended >= end) {
+                                break;
+                            }
+                            long now;
+                            while ((now = System.nanoTime()) < intended) {
+                                LockSupport.parkNanos(intended - now);
+                            }
+                            sendTime = intended;
+                            intended += intervalNanos;
+                        } else {
+                            sendTime = System.nanoTime();
+                            if (sendTime >= end) {
+                                break;
+                            }
+                        }
+                        if (!fetch(targets.get(next++ % targets.size()))) {
+                            errors.incrementAndGet();
+                        }
+                        histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sendTime));
+                    }
+                }
+            };
+            clients[t].start();
+        }
+
+        Histogram total = new Histogram(3);
+        for (int t = 0; t < threads; t++) {
+            clients[t].join();
+            total.add(histograms[t]);
+        }
+        return new LoadResult(total, errors.get(), System.nanoTime() - start);
+    }
+
+    /** Read the whole response, which lets the connection go back to the keep-alive pool */
+    static boolean fetch(URL url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            int code = connection.getResponseCode();
+            InputStream in = (code >= 400) ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                byte[] buffer = new byte[8192];
+                try {
+                    while (in.read(buffer) >= 0) {
+                        // Discard
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return code < 400;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+}
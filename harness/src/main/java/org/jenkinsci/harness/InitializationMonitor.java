@@ -0,0 +1,181 @@
+package org.jenkinsci.harness;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+/**
+ * Startup barrier for Jenkins, which also times how long each init milestone and each init task (loading a plugin, an item...) took.
+ * We can't register Jenkins listeners from outside the masked classloader, but the init reactor reports every
+ * milestone it attains to java.util.logging, which is JVM-wide, so a log handler sees each one as it happens.
+ * InitMilestones are logged as their bare display name ("Loaded all jobs"), only other milestones get an "Attained "
+ * prefix, so we recognize the former by the names of the InitMilestone values loaded from Jenkins core.
+ */
+public class InitializationMonitor extends Handler {
+    static final String REACTOR_LOGGER = "jenkins.InitReactorRunner";
+    static final String INIT_MILESTONE_CLASS = "hudson.init.InitMilestone";
+    static final String ATTAINED_PREFIX = "Attained ";
+    static final String STARTED_PREFIX = "Started ";
+    static final String COMPLETED_PREFIX = "Completed ";
+
+    /** Hold on to the logger, else the level we set can be lost when it's garbage collected */
+    final Logger reactorLogger = Logger.getLogger(REACTOR_LOGGER);
+    final SimpleFormatter formatter = new SimpleFormatter();
+    final Map<String, Long> milestoneMillis = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    /** Tasks run in parallel, so each is timed from its own start message */
+    final Map<String, Long> taskStartNanos = new HashMap<String, Long>();
+    final Map<String, Long> taskMillis = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    Level previousLevel;
+    long lastMilestoneNanos;
+    ClassLoader coreLoader;
+    /** Display names of the InitMilestone values, loaded once Jenkins core is on the webapp classpath */
+    Set<String> initMilestones;
+
+    /**
+     * Start listening, call before the webapp starts so no milestone is missed
+     * @param coreLoader the webapp's classloader, which can load Jenkins core once the webapp is starting
+     */
+    public void install(ClassLoader coreLoader) {
+        this.coreLoader = coreLoader;
+        lastMilestoneNanos = System.nanoTime();
+        previousLevel = reactorLogger.getLevel();
+        reactorLogger.setLevel(Level.FINE);  // Reactor progress is logged at FINE by default
+        reactorLogger.addHandler(this);
+    }
+
+    public void uninstall() {
+        reactorLogger.removeHandler(this);
+        reactorLogger.setLevel(previousLevel);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        String message = formatter.formatMessage(record);
+        if (message == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        String milestone = null;
+        if (getInitMilestones().contains(message)) {  // Before the task prefixes: "Started initialization" is a milestone
+            milestone = message;
+        } else if (message.startsWith(ATTAINED_PREFIX)) {  // Milestones other than InitMilestones
+            milestone = message.substring(ATTAINED_PREFIX.length());
+        }
+        if (milestone != null) {
+            synchronized (this) {
+                milestoneMillis.put(milestone, TimeUnit.NANOSECONDS.toMillis(now - lastMilestoneNanos));
+                lastMilestoneNanos = now;
+            }
+        } else if (message.startsWith(STARTED_PREFIX)) {
+            synchronized (this) {
+                taskStartNanos.put(message.substring(STARTED_PREFIX.length()), now);
+            }
+        } else if (message.startsWith(COMPLETED_PREFIX)) {
+            String task = message.substring(COMPLETED_PREFIX.length());
+            synchronized (this) {
+                Long start = taskStartNanos.remove(task);
+                if (start != null) {
+                    taskMillis.put(task, TimeUnit.NANOSECONDS.toMillis(now - start));
+                }
+            }
+        }
+    }
+
+    /** Empty until core can be loaded, which is before the reactor logs anything */
+    synchronized Set<String> getInitMilestones() {
+        if (initMilestones == null && coreLoader != null) {
+            try {
+                Set<String> names = new HashSet<String>();
+                for (Object value : coreLoader.loadClass(INIT_MILESTONE_CLASS).getEnumConstants()) {
+                    names.add(value.toString());
+                }
+                initMilestones = names;
+            } catch (ClassNotFoundException ex) {
+                return Collections.emptySet();  // Webapp not configured yet, try again on the next record
+            }
+        }
+        return (initMilestones == null) ? Collections.<String>emptySet() : initMilestones;
+    }
+
+    @Override
+    public void flush() {
+        // Nothing buffered
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /** Milestone name to milliseconds spent reaching it from the previous one, in the order attained */
+    public Map<String, Long> getMilestoneTimings() {
+        synchronized (milestoneMillis) {
+            return new LinkedHashMap<String, Long>(milestoneMillis);
+        }
+    }
+
+    /** Init task name (as Jenkins displays it, for example "Initializing plugin workflow-api") to milliseconds, in the order completed */
+    public Map<String, Long> getTaskTimings() {
+        synchronized (taskMillis) {
+            return new LinkedHashMap<String, Long>(taskMillis);
+        }
+    }
+
+    /**
+     * Block until the Jenkins initialization thread finishes, then verify Jenkins actually reached InitMilestone.COMPLETED.
+     * @throws TimeoutException if init is still running after the timeout
+     * @throws IllegalStateException if init ended without completing, or never started
+     */
+    public void awaitCompletion(WebAppContext webapp, ClassLoader coreLoader, long timeout, TimeUnit unit) throws Exception {
+        Thread initThread = findInitThread(webapp);
+        long start = System.currentTimeMillis();
+        initThread.join(unit.toMillis(timeout));
+        if (initThread.isAlive()) {
+            throw new TimeoutException("Jenkins failed to initialize within " + timeout + " " + unit);
+        }
+        Class<?> jenkinsClass = coreLoader.loadClass("jenkins.model.Jenkins");
+        Object jenkins = jenkinsClass.getMethod("getInstance").invoke(null);
+        Object level = (jenkins == null) ? null : jenkinsClass.getMethod("getInitLevel").invoke(jenkins);
+        if (level == null || !"COMPLETED".equals(((Enum) level).name())) {
+            throw new IllegalStateException("Jenkins initialization ended at milestone " + level + " rather than COMPLETED");
+        }
+        System.out.println("Jenkins internals started in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /** WebAppMain starts the init thread during server.start(), so it exists by now unless the webapp failed to deploy */
+    static Thread findInitThread(WebAppContext webapp) {
+        for (EventListener listener : webapp.getEventListeners()) {
+            if (listener.getClass().getName().equals("hudson.WebAppMain")) {
+                try {
+                    Field f = listener.getClass().getDeclaredField("initThread");
+                    f.setAccessible(true);
+                    Thread t = (Thread) f.get(listener);
+                    if (t != null) {
+                        return t;
+                    }
+                } catch (NoSuchFieldException|IllegalAccessException ex) {
+                    // Different Jenkins version, fall back to looking for the thread by name
+                }
+            }
+        }
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().contains("Jenkins initialization thread")) {
+                return t;
+            }
+        }
+        throw new IllegalStateException("No Jenkins initialization thread found, did the webapp deploy?");
+    }
+}
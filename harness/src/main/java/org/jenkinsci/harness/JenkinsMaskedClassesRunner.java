@@ -3,15 +3,21 @@ package org.jenkinsci.harness;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.eclipse.jetty.security.HashLoginService;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.webapp.WebAppClassLoader;
 import org.eclipse.jetty.webapp.WebAppContext;
 
@@ -26,6 +32,42 @@ public class JenkinsMaskedClassesRunner {
     ClassLoader testLoader = null;
     Server server = null;
     File jenkinsHome = null;
+    String war = null;
+
+    /** Reuse an initialized home template rather than staging & exploding all plugins for every trial */
+    boolean useHomeSnapshot = Boolean.getBoolean("jenkins.benchmark.homeSnapshot");
+    /** Port to bind, 0 picks a free ephemeral port so benchmarks can run in parallel on one host */
+    int port = Integer.getInteger("jenkins.benchmark.port", 0);
+    int localPort = -1;
+
+    /** Packages the Jenkins webapp sees from the benchmark classpath, extend with jenkins.benchmark.sharedPackages */
+    PackagePrefixMatcher sharedPackages = PackagePrefixMatcher.parse(
+            MaskingClassLoader.DEFAULT_SHARED_PACKAGES + "," + System.getProperty("jenkins.benchmark.sharedPackages", ""));
+    long initTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("jenkins.benchmark.initTimeoutSeconds", 120));
+    InitializationMonitor initMonitor = null;
+    File snapshotRoot = new File(System.getProperty("jenkins.benchmark.homeSnapshotDir",
+            new File(System.getProperty("java.io.tmpdir"), "jenkins-benchmark-snapshots").getAbsolutePath()));
+    /** Short names of the plugins to install along with their required dependencies, null installs every plugin found */
+    List<String> pluginRoots = parsePluginRoots(System.getProperty("jenkins.benchmark.pluginRoots"));
+    int lastPort = -1;
+    /** Named set of plugin versions to run with, see {@link #setPluginSet(String)} */
+    String pluginSet = DEFAULT_PLUGIN_SET;
+
+    public static final String DEFAULT_PLUGIN_SET = "default";
+    static final String PLUGIN_SET_PROPERTY_PREFIX = "jenkins.benchmark.pluginSet.";
+
+    static List<String> parsePluginRoots(String roots) {
+        if (roots == null) {
+            return null;
+        }
+        List<String> parsed = new ArrayList<String>();
+        for (String root : roots.split(",")) {
+            if (!root.trim().isEmpty()) {
+                parsed.add(root.trim());
+            }
+        }
+        return parsed;
+    }
 
     public Object getJenkins() {
         return jenkinsInstance;
@@ -35,10 +77,100 @@ public class JenkinsMaskedClassesRunner {
         return testLoader;
     }
 
+    /** Classloader for Jenkins core without plugins, its parent is the masking classloader */
+    public ClassLoader getCoreLoader() {
+        return coreLoader;
+    }
+
+    public File getJenkinsHome() {
+        return jenkinsHome;
+    }
+
+    /** Root URL of the running Jenkins, with a trailing slash, for example http://127.0.0.1:41234/jenkins/ */
+    public String getBaseUrl() {
+        if (localPort < 0) {
+            throw new IllegalStateException("Jenkins is not running");
+        }
+        return "http://127.0.0.1:" + localPort + "/jenkins/";
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /** How long each init milestone took during the last startup, in the order attained */
+    public Map<String, Long> getMilestoneTimings() {
+        return (initMonitor == null) ? Collections.<String, Long>emptyMap() : initMonitor.getMilestoneTimings();
+    }
+
+    /** Jenkins version as "jenkins", and each plugin's as "plugin.SHORTNAME", read reflectively from the running instance */
+    public Map<String, String> getVersions() throws Exception {
+        Map<String, String> versions = new TreeMap<String, String>();
+        versions.put("jenkins", String.valueOf(jenkinsClass.getMethod("getVersion").invoke(null)));
+        Object pluginManager = jenkinsClass.getMethod("getPluginManager").invoke(jenkinsInstance);
+        for (Object plugin : (List<?>) pluginManager.getClass().getMethod("getPlugins").invoke(pluginManager)) {
+            String shortName = (String) plugin.getClass().getMethod("getShortName").invoke(plugin);
+            versions.put("plugin." + shortName, (String) plugin.getClass().getMethod("getVersion").invoke(plugin));
+        }
+        return versions;
+    }
+
+    /** How long each init task took during the last startup, see {@link InitializationMonitor#getTaskTimings()} */
+    public Map<String, Long> getTaskTimings() {
+        return (initMonitor == null) ? Collections.<String, Long>emptyMap() : initMonitor.getTaskTimings();
+    }
+
+    /**
+     * Run with a named plugin set: "default" is the plugins on the classpath, any other name must be given a directory
+     * with -Djenkins.benchmark.pluginSet.NAME=DIR, whose .hpi/.jpi files replace the classpath plugins with the same
+     * short name (or are added). Call before startup.
+     */
+    public void setPluginSet(String pluginSet) {
+        this.pluginSet = pluginSet;
+    }
+
+    /** Apply the plugin set's overrides to the plugins found on the classpath */
+    List<File> applyPluginSet(List<File> pluginArchives) throws IOException {
+        if (pluginSet == null || pluginSet.equals(DEFAULT_PLUGIN_SET)) {
+            return pluginArchives;
+        }
+        String dir = System.getProperty(PLUGIN_SET_PROPERTY_PREFIX + pluginSet);
+        File[] overrides = (dir == null) ? null : new File(dir).listFiles();
+        if (overrides == null) {
+            throw new IllegalArgumentException("No plugin directory for plugin set '" + pluginSet
+                    + "', set -D" + PLUGIN_SET_PROPERTY_PREFIX + pluginSet + "=<dir>");
+        }
+        Map<String, File> byShortName = new LinkedHashMap<String, File>();
+        for (File f : pluginArchives) {
+            byShortName.put(PluginClosure.shortNameOf(f), f);
+        }
+        for (File f : overrides) {
+            if (f.getName().endsWith(".hpi") || f.getName().endsWith(".jpi")) {
+                File replaced = byShortName.put(PluginClosure.shortNameOf(f), f);
+                System.out.println("plugin set " + pluginSet + ": " + f.getName() + (replaced == null ? " added" : " replaces " + replaced.getName()));
+            }
+        }
+        return new ArrayList<File>(byShortName.values());
+    }
+
+    /** Install only these plugins and what they require, an empty list runs bare core; call before startup */
+    public void setPluginRoots(List<String> pluginRoots) {
+        this.pluginRoots = pluginRoots;
+    }
+
+    public void setInitTimeout(long timeout, TimeUnit unit) {
+        this.initTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public void setUseHomeSnapshot(boolean useHomeSnapshot) {
+        this.useHomeSnapshot = useHomeSnapshot;
+    }
+
+    public void setSnapshotRoot(File snapshotRoot) {
+        this.snapshotRoot = snapshotRoot;
+    }
+
     public void startup() throws Exception {
-        server = new Server(new InetSocketAddress("127.0.0.1", 8080));  // Security: bind only to connections from localhost
-        WebAppContext webapp = new WebAppContext();
-        webapp.setContextPath("/jenkins");
         jenkinsHome = File.createTempFile("jenkinsHome", ".tmp");
         jenkinsHome.delete();
         File plugins = new File(jenkinsHome, "plugins");
@@ -46,61 +178,72 @@ public class JenkinsMaskedClassesRunner {
         jenkinsHome.deleteOnExit();
 
         // Set up a WAR and plugin path to drop into our home for startup
+        war = null;
+        List<File> pluginArchives = new ArrayList<File>();
         for (String elt : System.getProperty("java.class.path").split(File.pathSeparator)) {
             if (elt.endsWith(".jar")) {
                 File f = new File(elt.replaceFirst("[.]jar$", ".hpi"));  // Works b/c we downloaded the HPI files too
                 if (f.isFile()) {
-                    File jpi = new File(plugins, f.getName().replace(".hpi", ".jpi")); // TODO strip out version
-                    Files.copy(f.toPath(), jpi.toPath());
-                    System.out.println("created " + jpi);
+                    pluginArchives.add(f);
                 } else if (elt.endsWith("-war-for-test.jar")) {
-                    webapp.setWar(elt);
+                    war = elt;
                     System.out.println("loading from " + elt);
                 } else {
                     System.out.println("ignoring " + elt);
                 }
             }
         }
-        server.setHandler(webapp);
 
+        pluginArchives = applyPluginSet(pluginArchives);
+        if (pluginRoots != null) {
+            pluginArchives = new PluginClosure(pluginArchives).resolve(pluginRoots);
+            System.out.println("installing " + pluginArchives.size() + " plugins for " + pluginRoots);
+        }
+
+        HomeSnapshot snapshot = null;
+        if (useHomeSnapshot) {
+            snapshot = new HomeSnapshot(snapshotRoot, HomeSnapshot.fingerprint(war, pluginArchives));
+        }
+        if (snapshot != null && snapshot.isAvailable()) {
+            snapshot.cloneTo(jenkinsHome);
+            System.out.println("cloned JENKINS_HOME from snapshot " + snapshot.getTemplateDir());
+        } else {
+            for (File f : pluginArchives) {
+                File jpi = new File(plugins, f.getName().replace(".hpi", ".jpi")); // TODO strip out version
+                Files.copy(f.toPath(), jpi.toPath());
+                System.out.println("created " + jpi);
+            }
+        }
+        try {
+            startJenkins(port);
+        } catch (Exception ex) {
+            shutdown();  // Nothing in this home is worth keeping yet
+            throw ex;
+        }
+
+        // Capture before any benchmark code runs, so the template only has what startup itself created
+        if (snapshot != null && !snapshot.isAvailable()) {
+            snapshot.capture(jenkinsHome);
+        }
+    }
+
+    /** Start Jenkins from the WAR on the existing home and wait until it has fully initialized */
+    void startJenkins(int bindPort) throws Exception {
+        server = new Server(new InetSocketAddress("127.0.0.1", bindPort));  // Security: bind only to connections from localhost
+        WebAppContext webapp = new WebAppContext();
+        webapp.setContextPath("/jenkins");
+        webapp.setWar(war);
+        server.setHandler(webapp);
 
-        System.setProperty("JENKINS_HOME", jenkinsHome.getAbsolutePath());
+        // Per-webapp rather than a global system property, so several instances can coexist in one JVM or run side by side
+        webapp.setInitParameter("JENKINS_HOME", jenkinsHome.getAbsolutePath());
         HashLoginService realm = new HashLoginService();
         realm.setName("default");
         //        realm.update("alice", new Password("alice"), new String[]{"user","female"});
         webapp.getSecurityHandler().setLoginService(realm);
         // Just load things from the test classpath which are in fact from Jetty, or from the Java platform.
         // Masker may need to load Hamcrest, etc which are used in testing but not part of jenkins
-        ClassLoader masker = new ClassLoader(JenkinsMaskedClassesRunner.class.getClassLoader()) {
-            final ClassLoader javaLoader = getParent().getParent();
-
-            @Override
-            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-                if (name.matches("(org[.]eclipse[.]jetty|javax[.]servlet|org[.]jenkinsci[.]harness|org[.]openjdk[.]jmh)[.].+")) {
-                    return super.loadClass(name, resolve);
-                } else {
-                    return javaLoader.loadClass(name);
-                }
-            }
-
-            @Override
-            public URL getResource(String name) {
-                if (name.matches("(org/eclipse/jetty|javax/servlet|org/jenkinsci/harness|org/openjdk/jmh)/.+")) {
-                    return super.getResource(name);
-                } else {
-                    return javaLoader.getResource(name);
-                }
-            }
-
-            @Override
-            public Enumeration<URL> getResources(String name) throws IOException {
-                if (name.matches("(org/eclipse/jetty|javax/servlet|org/jenkinsci/harness|org/openjdk/jmh)/.+")) {
-                    return super.getResources(name);
-                } else {
-                    return javaLoader.getResources(name);
-                }
-            }
-        };
+        ClassLoader masker = new MaskingClassLoader(JenkinsMaskedClassesRunner.class.getClassLoader(), sharedPackages);
         // Startup without polluting the webapp with test classes
         webapp.setClassLoader(new WebAppClassLoader(masker, webapp));
 
@@ -114,35 +257,32 @@ public class JenkinsMaskedClassesRunner {
         System.setProperty("hudson.udp", "-1");  // Not needed
         System.setProperty("hudson.model.UsageStatistics.disabled", "true");
 
-        server.start();
-
-        // Find the initialization thread from the Jenkins WebAppMain and wait for it to finish before proceeding
-        // A bit hacky, but you need to be able to obtain the actual WebAppMain instance to call joinInit on it
-        for (Thread t : Thread.getAllStackTraces().keySet()) {
-            if (t.getName().contains("Jenkins initialization thread")) {
-                System.out.println("Joining on: "+t.getName());
-                try {
-                    long start = System.currentTimeMillis();
-                    t.join(30000);
-                    long end = System.currentTimeMillis();
-                    System.out.println("Jenkins internals started in "+(end-start)+ " ms");
-                } catch (InterruptedException ie) {
-                    System.out.println("Jenkins failed to initialize within timeout, aborting!");
-                    try {
-                        shutdown();
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                        System.out.println("Jenkins failed to shutdown cleanly, taking the nuclear option and exiting the JVM!");
-                        System.exit(1);
-                    }
-                }
-                break;
+        initMonitor = new InitializationMonitor();
+        initMonitor.install(webapp.getClassLoader());
+        try {
+            server.start();
+            localPort = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            System.out.println("Jenkins listening at " + getBaseUrl());
+            // Gets the classloader for jenkins itself without plugins
+            coreLoader = webapp.getClassLoader();
+            jenkinsClass = coreLoader.loadClass("jenkins.model.Jenkins");
+            initMonitor.awaitCompletion(webapp, coreLoader, initTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception ex) {
+            // Only stop the server: on a restart the home still holds the state the benchmark is about
+            System.out.println("Jenkins failed to initialize, aborting!");
+            try {
+                stopJenkins();
+            } catch (Exception stopFailure) {
+                ex.addSuppressed(stopFailure);
             }
+            throw ex;
+        } finally {
+            initMonitor.uninstall();
+        }
+        for (Map.Entry<String, Long> milestone : initMonitor.getMilestoneTimings().entrySet()) {
+            System.out.println("  " + milestone.getKey() + ": " + milestone.getValue() + " ms");
         }
 
-        // Gets the classloader for jenkins itself without plugins
-        coreLoader = webapp.getClassLoader();
-        jenkinsClass = coreLoader.loadClass("jenkins.model.Jenkins");
         jenkinsInstance = jenkinsClass.getMethod("getInstance").invoke(null);
         Object pluginManager = jenkinsClass.getMethod("getPluginManager").invoke(jenkinsInstance);
 
@@ -151,21 +291,58 @@ public class JenkinsMaskedClassesRunner {
         testLoader = new URLClassLoader(((URLClassLoader)JenkinsMaskedClassesRunner.class.getClassLoader()).getURLs(), uberClassLoader);
     }
 
-    public void shutdown() {
-        try {
-            if (jenkinsInstance == null) {
-                jenkinsInstance = jenkinsClass.getMethod("getInstance").invoke(null);
-            }
+    /**
+     * Stop Jenkins and start it again on the same home and port, as a controller restart would: running builds are
+     * persisted and resumed. Everything loaded through the old {@link #getTestLoader()} is stale afterwards.
+     * @return Nanoseconds from starting the new instance until it finished initializing, excluding the stop
+     */
+    public long restart() throws Exception {
+        stop();
+        long start = System.nanoTime();
+        start();
+        return System.nanoTime() - start;
+    }
+
+    /** Start again after {@link #stop()}, on the same home and port */
+    public void start() throws Exception {
+        if (server != null) {
+            throw new IllegalStateException("Jenkins is already running");
+        }
+        startJenkins(lastPort);
+    }
+
+    /** Stop Jenkins but keep its home, for a later {@link #start()} */
+    public void stop() throws Exception {
+        stopJenkins();
+    }
+
+    void stopJenkins() throws Exception {
+        if (jenkinsInstance == null && jenkinsClass != null) {
+            jenkinsInstance = jenkinsClass.getMethod("getInstance").invoke(null);
+        }
+        if (jenkinsInstance != null) {
             jenkinsClass.getMethod("cleanUp").invoke(jenkinsInstance);
-            uberClassLoader = null;
+        }
+        uberClassLoader = null;
+        if (server != null) {
             server.stop();
             server.join();
+        }
+        server = null;
+        if (localPort > 0) {
+            lastPort = localPort;
+        }
+        localPort = -1;
+        coreLoader = null;
+        jenkinsClass = null;
+        jenkinsInstance = null;
+        testLoader = null;
+    }
+
+    public void shutdown() {
+        try {
+            stopJenkins();
             FileUtils.deleteDirectory(jenkinsHome);
-            server = null;
-            coreLoader = null;
-            jenkinsClass = null;
-            jenkinsInstance = null;
-            testLoader = null;
         } catch (Throwable t) {
             t.printStackTrace();
             System.exit(1);
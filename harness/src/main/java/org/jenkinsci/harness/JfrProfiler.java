@@ -0,0 +1,275 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+import org.openjdk.jmh.runner.IterationType;
+
+/**
+ * Records each measurement iteration with Java Flight Recorder (Jenkins runs in the forked JVM, so that's the one
+ * recorded), leaving warmup and setup out. The iterations' recordings are joined into one .jfr per benchmark, param
+ * set and fork, under the run's directory when launched through {@link ResultsStore}, else under ./jfr.
+ * After the last iteration, when the JVM can read recordings back (jdk.jfr.consumer, Java 11 and later), the hottest
+ * methods in Jenkins threads and the benchmark thread are added to the results: share of CPU samples and MB allocated
+ * (as sampled by TLAB events), by the method on top of the stack. A fuller breakdown by thread kind goes in a .txt beside the recording.
+ * On Oracle Java 8 the fork needs -XX:+UnlockCommercialFeatures -XX:+FlightRecorder.
+ */
+public class JfrProfiler implements InternalProfiler {
+    static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+    static final String RECORDING_NAME = "jenkins-benchmark";
+    /** JFR settings to record with, "profile" samples more often and includes allocation */
+    static final String SETTINGS = System.getProperty("jenkins.benchmark.jfr.settings", "profile");
+    /** Methods reported per kind in the results, the summary file lists more */
+    static final int TOP_RESULTS = 5;
+    static final int TOP_SUMMARY = 20;
+
+    /** Jenkins-side threads by kind, anything else (JMH, JFR, GC...) is left out */
+    static final Map<String, Pattern> THREAD_KINDS = new LinkedHashMap<String, Pattern>();
+
+    static {
+        THREAD_KINDS.put("benchmark", Pattern.compile(".*jmh-worker.*"));  // Runs the operation itself for in-process benchmarks
+        THREAD_KINDS.put("executor", Pattern.compile("^Executor #.*"));
+        THREAD_KINDS.put("cps", Pattern.compile("^Running CpsFlowExecution.*"));
+        THREAD_KINDS.put("jetty", Pattern.compile("^(qtp|Handling ).*"));  // Stapler renames request threads while handling
+        THREAD_KINDS.put("jenkins", Pattern.compile("^(jenkins|Jenkins|Computer\\.threadPoolForRemoting|AtmostOneTaskExecutor).*"));
+    }
+
+    final List<File> iterationRecordings = new ArrayList<File>();
+    int measurementIteration = 0;
+
+    @Override
+    public String getDescription() {
+        return "Java Flight Recorder over each measurement iteration, with hot methods of Jenkins threads";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        if (iterationParams.getType() == IterationType.MEASUREMENT) {
+            try {
+                diagnosticCommand("jfrStop", "name=" + RECORDING_NAME);  // Left running if an earlier iteration failed
+            } catch (IllegalStateException ex) {
+                // None running, as it should be
+            }
+            diagnosticCommand("jfrStart", "name=" + RECORDING_NAME, "settings=" + SETTINGS);
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        if (iterationParams.getType() != IterationType.MEASUREMENT) {
+            return Collections.emptyList();
+        }
+        try {
+            File recording = File.createTempFile("iteration", ".jfr");
+            recording.deleteOnExit();
+            diagnosticCommand("jfrStop", "name=" + RECORDING_NAME, "filename=" + recording.getAbsolutePath());
+            iterationRecordings.add(recording);
+            if (++measurementIteration < iterationParams.getCount()) {
+                return Collections.emptyList();
+            }
+
+            File dir = System.getProperty(ResultsStore.RUN_DIR_PROPERTY) != null
+                    ? new File(System.getProperty(ResultsStore.RUN_DIR_PROPERTY), "jfr") : new File("jfr");
+            String name = ResultsStore.key(benchmarkParams).replaceAll("[^A-Za-z0-9_.=-]+", "_");
+            if (benchmarkParams.getForks() > 1) {  // Forks run one after another, each takes the next free number
+                int fork = 1;
+                while (new File(dir, name + "-fork" + fork + ".jfr").exists()) {
+                    fork++;
+                }
+                name += "-fork" + fork;
+            }
+            File joined = new File(dir, name + ".jfr");
+            join(iterationRecordings, joined);
+            System.out.println("Flight recording saved to " + joined);
+            return summarize(joined, new File(dir, name + ".txt"));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not save the flight recording", ex);
+        }
+    }
+
+    static void diagnosticCommand(String operation, String... args) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName(DIAGNOSTIC_COMMAND), operation,
+                    new Object[] {args}, new String[] {String[].class.getName()});
+        } catch (Exception ex) {
+            throw new IllegalStateException(operation + " failed, is Flight Recorder available in this JVM? "
+                    + "Oracle Java 8 needs -XX:+UnlockCommercialFeatures -XX:+FlightRecorder", ex);
+        }
+    }
+
+    /** A recording is a sequence of chunks, so recordings written one after another read back as one */
+    static void join(List<File> recordings, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(target)) {
+            for (File f : recordings) {
+                Files.copy(f.toPath(), out);
+                f.delete();
+            }
+        }
+    }
+
+    /** Counts per method, for one kind of thread or all of them */
+    static final class Tally {
+        final Map<String, Long> cpuSamples = new HashMap<String, Long>();
+        final Map<String, Long> allocatedBytes = new HashMap<String, Long>();
+        long totalSamples;
+
+        void sample(String method) {
+            add(cpuSamples, method, 1);
+            totalSamples++;
+        }
+
+        void allocation(String method, long bytes) {
+            add(allocatedBytes, method, bytes);
+        }
+
+        static void add(Map<String, Long> counts, String key, long amount) {
+            Long current = counts.get(key);
+            counts.put(key, (current == null ? 0 : current) + amount);
+        }
+    }
+
+    static List<Map.Entry<String, Long>> top(Map<String, Long> counts, int n) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    /** Reads the recording back through jdk.jfr.consumer by reflection, this compiles and runs on Java 7 and 8 too */
+    static List<Result> summarize(File recording, File summaryFile) throws IOException {
+        Map<String, Tally> byKind = new LinkedHashMap<String, Tally>();
+        Tally all = new Tally();
+        try {
+            ClassLoader loader = ClassLoader.getSystemClassLoader();
+            Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile", true, loader);
+            Class<?> recordedObject = Class.forName("jdk.jfr.consumer.RecordedObject", true, loader);
+            Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent", true, loader);
+            Method readAllEvents = recordingFile.getMethod("readAllEvents", Path.class);
+            Method getEventType = recordedEvent.getMethod("getEventType");
+            Method getTypeName = Class.forName("jdk.jfr.EventType", true, loader).getMethod("getName");
+            Method hasField = recordedObject.getMethod("hasField", String.class);
+            Method getLong = recordedObject.getMethod("getLong", String.class);
+            Method getThread = recordedObject.getMethod("getThread", String.class);
+            Method getJavaName = Class.forName("jdk.jfr.consumer.RecordedThread", true, loader).getMethod("getJavaName");
+            Method getStackTrace = recordedEvent.getMethod("getStackTrace");
+            Method getFrames = Class.forName("jdk.jfr.consumer.RecordedStackTrace", true, loader).getMethod("getFrames");
+            Method getMethod = Class.forName("jdk.jfr.consumer.RecordedFrame", true, loader).getMethod("getMethod");
+            Class<?> recordedMethod = Class.forName("jdk.jfr.consumer.RecordedMethod", true, loader);
+            Method getMethodType = recordedMethod.getMethod("getType");
+            Method getMethodName = recordedMethod.getMethod("getName");
+            Method getClassName = Class.forName("jdk.jfr.consumer.RecordedClass", true, loader).getMethod("getName");
+
+            for (Object event : (List<?>) readAllEvents.invoke(null, recording.toPath())) {
+                String type = (String) getTypeName.invoke(getEventType.invoke(event));
+                String threadField;
+                String sizeField = null;
+                if (type.equals("jdk.ExecutionSample")) {
+                    threadField = "sampledThread";
+                } else if (type.equals("jdk.ObjectAllocationInNewTLAB")) {
+                    threadField = "eventThread";
+                    sizeField = "tlabSize";
+                } else if (type.equals("jdk.ObjectAllocationOutsideTLAB")) {
+                    threadField = "eventThread";
+                    sizeField = "allocationSize";
+                } else {
+                    continue;
+                }
+                Object thread = getThread.invoke(event, threadField);
+                String kind = (thread == null) ? null : kindOf((String) getJavaName.invoke(thread));
+                Object stack = getStackTrace.invoke(event);
+                if (kind == null || stack == null || ((List<?>) getFrames.invoke(stack)).isEmpty()) {
+                    continue;
+                }
+                Object topMethod = getMethod.invoke(((List<?>) getFrames.invoke(stack)).get(0));
+                String method = getClassName.invoke(getMethodType.invoke(topMethod)) + "." + getMethodName.invoke(topMethod);
+
+                Tally tally = byKind.get(kind);
+                if (tally == null) {
+                    tally = new Tally();
+                    byKind.put(kind, tally);
+                }
+                if (sizeField == null) {
+                    tally.sample(method);
+                    all.sample(method);
+                } else if ((Boolean) hasField.invoke(event, sizeField)) {
+                    long bytes = (Long) getLong.invoke(event, sizeField);
+                    tally.allocation(method, bytes);
+                    all.allocation(method, bytes);
+                }
+            }
+        } catch (ClassNotFoundException ex) {
+            System.out.println("No jdk.jfr.consumer in this JVM, open " + recording + " in Mission Control for hot methods");
+            return Collections.emptyList();
+        } catch (ReflectiveOperationException ex) {
+            throw new IOException("Could not read back " + recording, ex);
+        }
+
+        try (PrintStream out = new PrintStream(summaryFile, "UTF-8")) {
+            printTally(out, "all Jenkins threads", all);
+            for (Map.Entry<String, Tally> kind : byKind.entrySet()) {
+                printTally(out, kind.getKey() + " threads", kind.getValue());
+            }
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        for (Map.Entry<String, Long> e : top(all.cpuSamples, TOP_RESULTS)) {
+            results.add(new ScalarResult("jfr.cpu:" + e.getKey(), 100.0 * e.getValue() / all.totalSamples, "%", AggregationPolicy.AVG));
+        }
+        for (Map.Entry<String, Long> e : top(all.allocatedBytes, TOP_RESULTS)) {
+            results.add(new ScalarResult("jfr.alloc:" + e.getKey(), e.getValue() / (1024.0 * 1024.0), "MB", AggregationPolicy.AVG));
+        }
+        return results;
+    }
+
+    static String kindOf(String threadName) {
+        if (threadName == null) {
+            return null;
+        }
+        for (Map.Entry<String, Pattern> kind : THREAD_KINDS.entrySet()) {
+            if (kind.getValue().matcher(threadName).matches()) {
+                return kind.getKey();
+            }
+        }
+        return null;
+    }
+
+    static void printTally(PrintStream out, String title, Tally tally) {
+        out.println("CPU, " + title + " (" + tally.totalSamples + " samples)");
+        for (Map.Entry<String, Long> e : top(tally.cpuSamples, TOP_SUMMARY)) {
+            out.printf("  %6.2f%%  %s%n", 100.0 * e.getValue() / Math.max(1, tally.totalSamples), e.getKey());
+        }
+        out.println("Allocation, " + title);
+        for (Map.Entry<String, Long> e : top(tally.allocatedBytes, TOP_SUMMARY)) {
+            out.printf("  %9.1f MB  %s%n", e.getValue() / (1024.0 * 1024.0), e.getKey());
+        }
+        out.println();
+    }
+}
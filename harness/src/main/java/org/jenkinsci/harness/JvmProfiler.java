@@ -0,0 +1,66 @@
+package org.jenkinsci.harness;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Add with OptionsBuilder.addProfiler for allocation, GC and retained heap across every thread in the JVM, not just the
+ * benchmark thread that JMH's own gc profiler watches. Allocation is per operation; what {@link BaseBenchmark}'s
+ * invocation-level setup and teardown allocate is left out. GC activity can't be split that way so it is per iteration,
+ * and retained heap is read after forcing a full GC at the end of each iteration.
+ */
+public class JvmProfiler implements InternalProfiler {
+    static volatile boolean active = false;
+    static final AtomicLong excludedBytes = new AtomicLong();
+
+    JvmSampler.Snapshot start;
+
+    /** Whether allocations outside the measured operations need to be tracked */
+    static boolean isActive() {
+        return active;
+    }
+
+    static void exclude(JvmSampler.Snapshot before) {
+        excludedBytes.addAndGet(JvmSampler.take().allocatedSince(before));
+    }
+
+    @Override
+    public String getDescription() {
+        return "All-thread allocation, GC and retained heap from the platform MXBeans";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        excludedBytes.set(0);
+        active = true;
+        start = JvmSampler.take();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        JvmSampler.Snapshot end = JvmSampler.take();
+        active = false;
+        long ops = Math.max(1, result.getMetadata().getMeasuredOps());
+        long allocated = Math.max(0, end.allocatedSince(start) - excludedBytes.get());
+        double seconds = end.nanosSince(start) / 1e9;
+
+        List<Result> results = new ArrayList<Result>();
+        if (JvmSampler.isAllocationSupported()) {
+            results.add(new ScalarResult("jvm.alloc.perOp", (double) allocated / ops, "B/op", AggregationPolicy.AVG));
+            results.add(new ScalarResult("jvm.alloc.rate", allocated / seconds / (1024 * 1024), "MB/s", AggregationPolicy.AVG));
+        }
+        results.add(new ScalarResult("jvm.gc.count", end.gcCountSince(start), "#", AggregationPolicy.SUM));
+        results.add(new ScalarResult("jvm.gc.time", end.gcMillisSince(start), "ms", AggregationPolicy.SUM));
+        results.add(new ScalarResult("jvm.heap.retained", JvmSampler.retainedHeapBytes() / (1024.0 * 1024.0), "MB", AggregationPolicy.AVG));
+        return results;
+    }
+}
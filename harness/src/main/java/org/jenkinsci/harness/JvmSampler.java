@@ -0,0 +1,93 @@
+package org.jenkinsci.harness;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM-wide counters read through the platform MXBeans, so they cover Jenkins' own threads (executors, the CPS VM,
+ * Jetty) and not just the JMH benchmark thread. Allocation is counted per thread by HotSpot: bytes allocated by a thread
+ * that ends between two snapshots are lost, so short-lived threads are undercounted.
+ */
+public final class JvmSampler {
+    static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    /** Counters at one point in time */
+    public static final class Snapshot {
+        final Map<Long, Long> allocatedByThread;
+        final long gcCount;
+        final long gcMillis;
+        final long nanoTime;
+
+        Snapshot(Map<Long, Long> allocatedByThread, long gcCount, long gcMillis, long nanoTime) {
+            this.allocatedByThread = allocatedByThread;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.nanoTime = nanoTime;
+        }
+
+        /** Bytes allocated by all threads since the earlier snapshot, threads started since then count from zero */
+        public long allocatedSince(Snapshot earlier) {
+            long total = 0;
+            for (Map.Entry<Long, Long> e : allocatedByThread.entrySet()) {
+                Long before = earlier.allocatedByThread.get(e.getKey());
+                total += e.getValue() - (before == null ? 0 : before);
+            }
+            return total;
+        }
+
+        public long gcCountSince(Snapshot earlier) {
+            return gcCount - earlier.gcCount;
+        }
+
+        /** Collector time, which for concurrent collectors includes concurrent phases as well as pauses */
+        public long gcMillisSince(Snapshot earlier) {
+            return gcMillis - earlier.gcMillis;
+        }
+
+        public long nanosSince(Snapshot earlier) {
+            return nanoTime - earlier.nanoTime;
+        }
+    }
+
+    private JvmSampler() {
+        // Static utility
+    }
+
+    /** False on JVMs without per-thread allocation counters, in which case allocations read as zero */
+    public static boolean isAllocationSupported() {
+        return THREADS instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+    }
+
+    public static Snapshot take() {
+        Map<Long, Long> allocated = new HashMap<Long, Long>();
+        if (isAllocationSupported()) {
+            long[] ids = THREADS.getAllThreadIds();
+            long[] bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {  // -1 if the thread ended or counting is off
+                    allocated.put(ids[i], bytes[i]);
+                }
+            }
+        }
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new Snapshot(allocated, count, millis, System.nanoTime());
+    }
+
+    /** Heap still in use after full collections, i.e. what is actually retained */
+    public static long retainedHeapBytes() {
+        System.gc();
+        System.gc();  // A second pass picks up what finalization released
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,54 @@
+package org.jenkinsci.harness;
+
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/** Outcome of one {@link HttpLoadGenerator} run, latencies are held in microseconds */
+public class LoadResult {
+    final Histogram latencyMicros;
+    final long errors;
+    final long elapsedNanos;
+
+    LoadResult(Histogram latencyMicros, long errors, long elapsedNanos) {
+        this.latencyMicros = latencyMicros;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public Histogram getHistogram() {
+        return latencyMicros;
+    }
+
+    public long getRequests() {
+        return latencyMicros.getTotalCount();
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getPercentileMillis(double percentile) {
+        return latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public double getRequestsPerSecond() {
+        return getRequests() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /** Report the headline numbers as secondary results, prefixed with the given label */
+    public void record(String label) {
+        BenchmarkMetrics.record(label + ".p50", getPercentileMillis(50), "ms");
+        BenchmarkMetrics.record(label + ".p99", getPercentileMillis(99), "ms");
+        BenchmarkMetrics.record(label + ".p99.9", getPercentileMillis(99.9), "ms");
+        BenchmarkMetrics.record(label + ".max", latencyMicros.getMaxValue() / 1000.0, "ms");
+        BenchmarkMetrics.record(label + ".throughput", getRequestsPerSecond(), "req/s");
+        BenchmarkMetrics.record(label + ".errors", errors, "#");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests (%d errors) at %.1f req/s, p50=%.2f ms p99=%.2f ms p99.9=%.2f ms max=%.2f ms",
+                getRequests(), errors, getRequestsPerSecond(), getPercentileMillis(50), getPercentileMillis(99),
+                getPercentileMillis(99.9), latencyMicros.getMaxValue() / 1000.0);
+    }
+}
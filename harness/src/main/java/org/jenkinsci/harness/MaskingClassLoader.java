@@ -0,0 +1,50 @@
+package org.jenkinsci.harness;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+
+/**
+ * Parent for the Jenkins webapp classloader: only the shared packages (Jetty, servlet API, the harness, JMH) come from
+ * the benchmark classpath, everything else comes from the Java platform alone, so test dependencies can't leak into Jenkins.
+ * Jenkins calls through here constantly while loading plugins, so the package check has to be cheap.
+ */
+public class MaskingClassLoader extends ClassLoader {
+    public static final String DEFAULT_SHARED_PACKAGES = "org.eclipse.jetty,javax.servlet,org.jenkinsci.harness,org.openjdk.jmh";
+
+    final ClassLoader javaLoader;
+    final PackagePrefixMatcher sharedPackages;
+
+    public MaskingClassLoader(ClassLoader parent, PackagePrefixMatcher sharedPackages) {
+        super(parent);
+        this.javaLoader = parent.getParent();
+        this.sharedPackages = sharedPackages;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (sharedPackages.matchesClass(name)) {
+            return super.loadClass(name, resolve);
+        } else {
+            return javaLoader.loadClass(name);
+        }
+    }
+
+    @Override
+    public URL getResource(String name) {
+        if (sharedPackages.matchesResource(name)) {
+            return super.getResource(name);
+        } else {
+            return javaLoader.getResource(name);
+        }
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        if (sharedPackages.matchesResource(name)) {
+            return super.getResources(name);
+        } else {
+            return javaLoader.getResources(name);
+        }
+    }
+}
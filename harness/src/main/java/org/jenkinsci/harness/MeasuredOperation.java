@@ -0,0 +1,11 @@
+package org.jenkinsci.harness;
+
+/**
+ * Implemented by suites whose measured operation runs inside Jenkins: their benchmark methods call
+ * {@code ((MeasuredOperation) actualRunnable).runBenchmark()}. This type is shared across the classloader boundary, so
+ * that's a plain interface call the JIT inlines as it would any other, unlike a handle or Method held in a field.
+ */
+public interface MeasuredOperation {
+    /** The measured operation, run on the Jenkins-side instance */
+    Object runBenchmark() throws Exception;
+}
@@ -0,0 +1,36 @@
+package org.jenkinsci.harness;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/** Add with OptionsBuilder.addProfiler to report values recorded via {@link BenchmarkMetrics} as secondary results */
+public class MetricsProfiler implements InternalProfiler {
+
+    @Override
+    public String getDescription() {
+        return "Secondary results recorded through BenchmarkMetrics";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        // Values recorded during setup belong to the iteration they precede, so nothing to reset
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        List<Result> results = new ArrayList<Result>();
+        for (Map.Entry<String, BenchmarkMetrics.Metric> e : BenchmarkMetrics.drain().entrySet()) {
+            results.add(new ScalarResult(e.getKey(), e.getValue().mean(), e.getValue().unit, AggregationPolicy.AVG));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.harness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Matches class and resource names against a set of package prefixes, using a trie of package segments and caching
+ * the decision for each package seen. Class names are split on '.' and resource paths on '/' only, so prefix
+ * "org.eclipse.jetty" matches org.eclipse.jetty.server.Server as well as org/eclipse/jetty/webapp/webdefault.xml,
+ * but not org.eclipse.jettyx.Foo or org/eclipse/jetty.xml.
+ */
+public class PackagePrefixMatcher {
+
+    static final class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        boolean terminal = false;
+    }
+
+    final Node root = new Node();
+
+    /** Package to decision, bounded by the number of distinct packages on the classpath */
+    final ConcurrentHashMap<String, Boolean> classDecisions = new ConcurrentHashMap<String, Boolean>();
+    final ConcurrentHashMap<String, Boolean> resourceDecisions = new ConcurrentHashMap<String, Boolean>();
+
+    public PackagePrefixMatcher(Collection<String> prefixes) {
+        for (String prefix : prefixes) {
+            Node node = root;
+            for (String segment : prefix.trim().split("[./]")) {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+    }
+
+    /** Prefixes given as a comma-separated list, blank entries ignored */
+    public static PackagePrefixMatcher parse(String prefixes) {
+        List<String> list = new ArrayList<String>();
+        for (String prefix : Arrays.asList(prefixes.split(","))) {
+            if (!prefix.trim().isEmpty()) {
+                list.add(prefix.trim());
+            }
+        }
+        return new PackagePrefixMatcher(list);
+    }
+
+    /** True if the binary class name is in one of the packages (or their subpackages) */
+    public boolean matchesClass(String name) {
+        return matches(name, '.', classDecisions);
+    }
+
+    /** True if the resource path is in one of the packages' directories (or below them) */
+    public boolean matchesResource(String name) {
+        return matches(name, '/', resourceDecisions);
+    }
+
+    boolean matches(String name, char separator, ConcurrentHashMap<String, Boolean> decisions) {
+        int end = name.lastIndexOf(separator);
+        if (end == name.length() - 1) {  // Directory-style resource, the name itself must be below a prefix
+            end = name.lastIndexOf(separator, end - 1);
+        }
+        if (end <= 0) {
+            return false;
+        }
+        String pkg = name.substring(0, end);
+        Boolean decision = decisions.get(pkg);
+        if (decision == null) {
+            decision = walk(pkg, separator);
+            decisions.put(pkg, decision);
+        }
+        return decision;
+    }
+
+    boolean walk(String pkg, char separator) {
+        Node node = root;
+        int start = 0;
+        while (start <= pkg.length()) {
+            int end = pkg.indexOf(separator, start);
+            if (end < 0) {
+                end = pkg.length();
+            }
+            node = node.children.get(pkg.substring(start, end));
+            if (node == null) {
+                return false;
+            } else if (node.terminal) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+}
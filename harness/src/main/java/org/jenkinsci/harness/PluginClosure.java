@@ -0,0 +1,91 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Picks the plugin archives needed for a set of root plugins: the roots plus everything they require, transitively,
+ * read from the Plugin-Dependencies entry of each archive's manifest. Optional dependencies are left out, so the
+ * result is the smallest set Jenkins will load the roots with.
+ */
+public class PluginClosure {
+    final Map<String, File> byShortName = new HashMap<String, File>();
+    final Map<String, List<String>> requiredDependencies = new HashMap<String, List<String>>();
+
+    public PluginClosure(Collection<File> pluginArchives) throws IOException {
+        for (File archive : pluginArchives) {
+            Attributes attributes = readAttributes(archive);
+            String shortName = attributes.getValue("Short-Name");
+            byShortName.put(shortName, archive);
+            requiredDependencies.put(shortName, parseRequired(attributes.getValue("Plugin-Dependencies")));
+        }
+    }
+
+    static Attributes readAttributes(File archive) throws IOException {
+        try (JarFile jar = new JarFile(archive)) {
+            Manifest manifest = jar.getManifest();
+            if (manifest == null) {
+                throw new IOException("No manifest in plugin " + archive);
+            }
+            Attributes attributes = manifest.getMainAttributes();
+            if (attributes.getValue("Short-Name") == null) {
+                throw new IOException("No Short-Name in plugin " + archive);
+            }
+            return attributes;
+        }
+    }
+
+    /** The plugin's short name (its id, such as workflow-api) from the archive manifest */
+    public static String shortNameOf(File archive) throws IOException {
+        return readAttributes(archive).getValue("Short-Name");
+    }
+
+    /** Entries look like workflow-api:2.5,credentials:1.22;resolution:=optional */
+    static List<String> parseRequired(String dependencies) {
+        List<String> required = new ArrayList<String>();
+        if (dependencies == null) {
+            return required;
+        }
+        for (String entry : dependencies.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty() || entry.contains("resolution:=optional")) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            required.add(colon < 0 ? entry : entry.substring(0, colon));
+        }
+        return required;
+    }
+
+    /** Archives for the roots and their required dependencies, fails if one of them isn't on the classpath */
+    public List<File> resolve(Collection<String> roots) {
+        Set<String> seen = new HashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>(roots);
+        List<File> archives = new ArrayList<File>();
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (!seen.add(name)) {
+                continue;
+            }
+            File archive = byShortName.get(name);
+            if (archive == null) {
+                throw new IllegalArgumentException("Plugin " + name + " is required but not on the classpath");
+            }
+            archives.add(archive);
+            pending.addAll(requiredDependencies.get(name));
+        }
+        return archives;
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.harness;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+/**
+ * Compares the results of one run across plugin sets: results are grouped by benchmark and every param but pluginSet,
+ * then each set is listed with its 99.9% confidence interval and its change against the first set (the baseline).
+ * A change is only called out when the intervals don't overlap.
+ */
+public final class PluginSetReport {
+    static final String PLUGIN_SET_PARAM = "pluginSet";
+
+    private PluginSetReport() {
+        // Static utility
+    }
+
+    public static void print(Collection<RunResult> results, PrintStream out) {
+        Map<String, List<RunResult>> groups = new LinkedHashMap<String, List<RunResult>>();
+        List<String> sets = new ArrayList<String>();
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String set = params.getParam(PLUGIN_SET_PARAM);
+            if (set == null) {
+                continue;
+            }
+            if (!sets.contains(set)) {
+                sets.add(set);
+            }
+            String key = groupKey(params);
+            List<RunResult> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<RunResult>();
+                groups.put(key, group);
+            }
+            group.add(result);
+        }
+        if (sets.size() < 2) {
+            out.println("Only one plugin set ran, nothing to compare (use -p pluginSet=a,b)");
+            return;
+        }
+
+        out.println("Plugin set comparison, 99.9% confidence intervals, baseline: " + sets.get(0));
+        for (Map.Entry<String, List<RunResult>> group : groups.entrySet()) {
+            out.println(group.getKey());
+            Result baseline = null;
+            for (RunResult result : group.getValue()) {
+                Result primary = result.getPrimaryResult();
+                double[] ci = primary.getScoreConfidence();
+                StringBuilder line = new StringBuilder(String.format("  %-16s %12.3f \u00b1 %-10.3f %-10s [%.3f, %.3f]",
+                        result.getParams().getParam(PLUGIN_SET_PARAM), primary.getScore(), primary.getScoreError(),
+                        primary.getScoreUnit(), ci[0], ci[1]));
+                if (baseline == null) {
+                    baseline = primary;
+                } else {
+                    line.append(String.format("  %+.1f%%  %s", 100 * (primary.getScore() - baseline.getScore()) / baseline.getScore(),
+                            verdict(baseline, primary, result.getParams().getMode())));
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    static String groupKey(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark());
+        List<String> values = new ArrayList<String>();
+        for (String name : params.getParamsKeys()) {
+            if (!name.equals(PLUGIN_SET_PARAM)) {
+                values.add(name + "=" + params.getParam(name));
+            }
+        }
+        if (!values.isEmpty()) {
+            key.append(' ').append(values);
+        }
+        return key.toString();
+    }
+
+    static String verdict(Result baseline, Result candidate, Mode mode) {
+        double[] a = baseline.getScoreConfidence();
+        double[] b = candidate.getScoreConfidence();
+        if (b[0] <= a[1] && a[0] <= b[1]) {
+            return "no significant difference";
+        }
+        boolean higher = candidate.getScore() > baseline.getScore();
+        boolean higherIsBetter = (mode == Mode.Throughput);
+        return (higher == higherIsBetter) ? "faster" : "SLOWER";
+    }
+}
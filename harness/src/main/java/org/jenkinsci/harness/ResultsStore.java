@@ -0,0 +1,272 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.stat.inference.TestUtils;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+/**
+ * Keeps the results of every run under a results directory (-Djenkins.benchmark.resultsDir, default benchmark-results),
+ * one directory per run with the JMH JSON, the per-iteration scores, and the environment it ran in: JVM, plus the
+ * Jenkins and plugin versions that each forked benchmark reports for its plugin set.
+ * Each run is compared with a baseline run (-Djenkins.benchmark.baseline=RUN_ID, which must have results, else the latest
+ * earlier run) using Welch's t-test on the iteration scores: a benchmark that got significantly worse by more than a
+ * minimum change counts as a regression, so callers can fail the build.
+ */
+public class ResultsStore {
+    static final String RUN_DIR_PROPERTY = "jenkins.benchmark.runDir";
+    static final String SAMPLES_FILE = "samples.tsv";
+
+    final File root;
+    final String runId;
+    final File runDir;
+    /** Significance level for the t-test */
+    double alpha = Double.parseDouble(System.getProperty("jenkins.benchmark.regressionAlpha", "0.01"));
+    /** Relative changes smaller than this are never regressions, however significant */
+    double minChange = Double.parseDouble(System.getProperty("jenkins.benchmark.regressionMinChange", "0.05"));
+    final List<String> regressions = new ArrayList<String>();
+
+    public ResultsStore() {
+        this(new File(System.getProperty("jenkins.benchmark.resultsDir", "benchmark-results")));
+    }
+
+    public ResultsStore(File root) {
+        this.root = root;
+        // Creating the directory claims the id, so two runs started in the same millisecond still get one each
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        File runs = new File(root, "runs");
+        runs.mkdirs();
+        String id = timestamp;
+        for (int n = 2; !new File(runs, id).mkdir(); n++) {
+            if (n > 1000) {
+                throw new IllegalStateException("Could not create a run directory under " + runs);
+            }
+            id = timestamp + "-" + n;
+        }
+        this.runId = id;
+        this.runDir = new File(runs, runId);
+    }
+
+    /** Pass to OptionsBuilder.jvmArgsAppend, so forked benchmarks know where to report their environment */
+    public String forkJvmArg() {
+        return "-D" + RUN_DIR_PROPERTY + "=" + runDir.getAbsolutePath();
+    }
+
+    /**
+     * Called in the forked JVM once Jenkins is up, does nothing unless the run was started through a store.
+     * Trials with the same plugin set can install different subsets of it (StartupBenchmark's plugins param), so the
+     * file keeps the union of what every trial reported.
+     */
+    static void recordEnvironment(String pluginSet, Map<String, String> versions) throws IOException {
+        String dir = System.getProperty(RUN_DIR_PROPERTY);
+        if (dir == null) {
+            return;
+        }
+        File file = new File(dir, "environment-" + pluginSet + ".properties");
+        Properties props = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            }
+        }
+        props.putAll(versions);
+        store(props, file, "Jenkins and plugins for plugin set " + pluginSet);
+    }
+
+    static void store(Properties props, File file, String comment) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, comment);
+        }
+    }
+
+    public void save(Collection<RunResult> results) throws IOException {
+        runDir.mkdirs();
+        try (PrintStream out = new PrintStream(new File(runDir, "results.json"), "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+
+        StringBuilder samples = new StringBuilder();
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            List<String> scores = new ArrayList<String>();
+            for (BenchmarkResult benchmark : result.getBenchmarkResults()) {
+                for (IterationResult iteration : benchmark.getIterationResults()) {
+                    scores.add(String.valueOf(iteration.getPrimaryResult().getScore()));
+                }
+            }
+            samples.append(key(params)).append('\t').append(params.getMode().shortLabel()).append('\t')
+                    .append(result.getPrimaryResult().getScoreUnit()).append('\t').append(join(scores)).append('\n');
+        }
+        FileUtils.writeStringToFile(new File(runDir, SAMPLES_FILE), samples.toString(), StandardCharsets.UTF_8);
+
+        Properties jvm = new Properties();
+        for (String p : Arrays.asList("java.version", "java.vm.name", "java.vm.version", "java.vendor", "os.name", "os.arch")) {
+            jvm.setProperty(p, System.getProperty(p, ""));
+        }
+        jvm.setProperty("cpus", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        store(jvm, new File(runDir, "environment.properties"), "JVM running the benchmarks");
+        System.out.println("Results saved to " + runDir);
+    }
+
+    static String key(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark());
+        for (String name : params.getParamsKeys()) {
+            key.append(' ').append(name).append('=').append(params.getParam(name));
+        }
+        return key.toString();
+    }
+
+    static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String v : values) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(v);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A run to compare with: the one named by jenkins.benchmark.baseline, else the latest earlier run with results for
+     * at least one of the given benchmarks (the previous run may well have been another suite)
+     */
+    File findBaseline(Collection<String> keys) throws IOException {
+        String named = System.getProperty("jenkins.benchmark.baseline");
+        if (named != null) {
+            return new File(new File(root, "runs"), named);
+        }
+        File[] runs = new File(root, "runs").listFiles();
+        if (runs == null) {
+            return null;
+        }
+        Arrays.sort(runs);  // Ids are timestamps, so name order is time order
+        for (int i = runs.length - 1; i >= 0; i--) {
+            if (!runs[i].getName().equals(runId) && new File(runs[i], SAMPLES_FILE).isFile()
+                    && !Collections.disjoint(readSamples(runs[i]).keySet(), keys)) {
+                return runs[i];
+            }
+        }
+        return null;
+    }
+
+    static final class Samples {
+        final boolean higherIsBetter;
+        final String unit;
+        final double[] scores;
+
+        Samples(boolean higherIsBetter, String unit, double[] scores) {
+            this.higherIsBetter = higherIsBetter;
+            this.unit = unit;
+            this.scores = scores;
+        }
+    }
+
+    static Map<String, Samples> readSamples(File dir) throws IOException {
+        Map<String, Samples> samples = new LinkedHashMap<String, Samples>();
+        for (String line : FileUtils.readLines(new File(dir, SAMPLES_FILE), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields.length < 4 || fields[3].isEmpty()) {
+                continue;
+            }
+            String[] values = fields[3].split(",");
+            double[] scores = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                scores[i] = Double.parseDouble(values[i]);
+            }
+            samples.put(fields[0], new Samples(Mode.deepValueOf(fields[1]) == Mode.Throughput, fields[2], scores));
+        }
+        return samples;
+    }
+
+    /**
+     * Compare this run, once saved, with the baseline and print the outcome for each benchmark they share.
+     * @return false if any benchmark regressed
+     */
+    public boolean checkAgainstBaseline() throws IOException {
+        Map<String, Samples> current = readSamples(runDir);
+        File baselineDir = findBaseline(current.keySet());
+        boolean named = System.getProperty("jenkins.benchmark.baseline") != null;
+        if (named && !new File(baselineDir, SAMPLES_FILE).isFile()) {
+            // Passing for want of a baseline would hide regressions from whoever asked for the comparison
+            throw new IllegalArgumentException("Baseline run " + baselineDir.getName() + " has no results under " + baselineDir.getParent());
+        }
+        if (baselineDir == null) {
+            System.out.println("WARNING: no earlier run has results for any of these benchmarks, nothing was checked for regressions");
+            return true;
+        }
+        Map<String, Samples> baseline = readSamples(baselineDir);
+        if (named && Collections.disjoint(baseline.keySet(), current.keySet())) {
+            throw new IllegalArgumentException("Baseline run " + baselineDir.getName() + " shares no benchmark and params with this run");
+        }
+        System.out.println("Comparing with baseline run " + baselineDir.getName()
+                + " (Welch's t-test, alpha=" + alpha + ", min change " + (minChange * 100) + "%)");
+        for (Map.Entry<String, Samples> e : current.entrySet()) {
+            Samples before = baseline.get(e.getKey());
+            Samples after = e.getValue();
+            if (before == null) {
+                System.out.println("  NEW        " + e.getKey());
+                continue;
+            }
+            double meanBefore = StatUtils.mean(before.scores);
+            double meanAfter = StatUtils.mean(after.scores);
+            double change = (meanAfter - meanBefore) / meanBefore;
+            boolean worse = after.higherIsBetter ? change < 0 : change > 0;
+            String verdict;
+            if (before.scores.length < 2 || after.scores.length < 2) {
+                verdict = "TOO FEW  ";  // The t-test needs at least two iterations on each side
+            } else {
+                double p = TestUtils.tTest(before.scores, after.scores);
+                if (p < alpha && Math.abs(change) >= minChange) {
+                    verdict = worse ? "REGRESSED" : "IMPROVED ";
+                    if (worse) {
+                        regressions.add(e.getKey());
+                    }
+                } else {
+                    verdict = "SAME     ";
+                }
+                verdict += String.format(" p=%.4f", p);
+            }
+            System.out.println(String.format("  %s %+.1f%% (%.3f -> %.3f %s) %s", verdict, change * 100,
+                    meanBefore, meanAfter, after.unit, e.getKey()));
+        }
+        Properties baselineRef = new Properties();
+        baselineRef.setProperty("baseline", baselineDir.getName());
+        baselineRef.setProperty("regressions", String.valueOf(regressions.size()));
+        store(baselineRef, new File(runDir, "comparison.properties"), "Outcome of comparing with the baseline");
+        return regressions.isEmpty();
+    }
+
+    public List<String> getRegressions() {
+        return regressions;
+    }
+
+    public File getRunDir() {
+        return runDir;
+    }
+}
@@ -0,0 +1,261 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Runs one suite for hours rather than minutes, outside JMH, to find what only shows with time: caches that keep
+ * growing, classloaders or threads leaked by repeated job create/delete, throughput drifting down.
+ * The suite's lifecycle runs as under JMH (trial setup, then invocation setup, benchmark methods and invocation teardown
+ * over and over), with each sampling interval treated as one iteration. At the end of each interval it records
+ * throughput, heap retained after full GC, live threads, loaded classes and open file descriptors.
+ * Once done it fits a line through each series, leaving out the first intervals while things warm up. A series whose
+ * slope is significant and adds up to more than a minimum change over the run is flagged, as is throughput going down.
+ */
+public class SoakRunner {
+    /** Significance level for the slope being non-zero */
+    double alpha = Double.parseDouble(System.getProperty("jenkins.benchmark.regressionAlpha", "0.01"));
+    /** Growth over the whole run smaller than this fraction of the starting value is never flagged */
+    double minChange = Double.parseDouble(System.getProperty("jenkins.benchmark.regressionMinChange", "0.05"));
+    /** Fraction of intervals at the start left out of the fit */
+    double warmupFraction = 0.2;
+
+    final Class<?> suite;
+    final long durationNanos;
+    final long intervalNanos;
+    final Map<String, String> params;
+
+    /** Metric name to one value per interval, in order */
+    final Map<String, List<Double>> series = new LinkedHashMap<String, List<Double>>();
+    final List<Double> elapsedHours = new ArrayList<Double>();
+    final List<String> flagged = new ArrayList<String>();
+
+    /**
+     * @param params values for the suite's @Param fields, those not given take the first value the suite declares
+     */
+    public SoakRunner(Class<?> suite, long duration, long interval, TimeUnit unit, Map<String, String> params) {
+        this.suite = suite;
+        this.durationNanos = unit.toNanos(duration);
+        this.intervalNanos = unit.toNanos(interval);
+        this.params = params;
+        for (String metric : new String[] {"ops/s", "heap.retained.MB", "threads", "classes.loaded", "fds.open"}) {
+            series.put(metric, new ArrayList<Double>());
+        }
+    }
+
+    /**
+     * Run the suite, write the samples to soak-SUITE.tsv in the given directory and print what grew.
+     * @return false if any series was flagged
+     */
+    public boolean run(File outputDir) throws Exception {
+        Object benchmark = suite.newInstance();
+        applyParams(benchmark);
+        List<Method> benchmarkMethods = new ArrayList<Method>();
+        for (Method m : lifecycleMethods(suite, Benchmark.class, null)) {
+            if (m.getParameterTypes().length != 0) {
+                throw new IllegalArgumentException("Soak only runs benchmark methods without arguments, not " + m);
+            }
+            benchmarkMethods.add(m);
+        }
+        if (benchmarkMethods.isEmpty()) {
+            throw new IllegalArgumentException("No @Benchmark methods in " + suite.getName());
+        }
+
+        // Looked up once, a reflective scan per invocation would be measured along with the operation
+        List<Method> setupIteration = lifecycleMethods(suite, Setup.class, Level.Iteration);
+        List<Method> setupInvocation = lifecycleMethods(suite, Setup.class, Level.Invocation);
+        List<Method> tearDownInvocation = lifecycleMethods(suite, TearDown.class, Level.Invocation);
+        List<Method> tearDownIteration = lifecycleMethods(suite, TearDown.class, Level.Iteration);
+
+        invokeAll(benchmark, lifecycleMethods(suite, Setup.class, Level.Trial));
+        try {
+            long start = System.nanoTime();
+            sample(0, 0);  // Where everything starts from
+            while (System.nanoTime() - start < durationNanos) {
+                invokeAll(benchmark, setupIteration);
+                long intervalStart = System.nanoTime();
+                long ops = 0;
+                while (System.nanoTime() - intervalStart < intervalNanos) {
+                    for (Method m : benchmarkMethods) {
+                        invokeAll(benchmark, setupInvocation);
+                        invoke(benchmark, m);
+                        invokeAll(benchmark, tearDownInvocation);
+                        ops++;
+                    }
+                }
+                double seconds = (System.nanoTime() - intervalStart) / 1e9;
+                invokeAll(benchmark, tearDownIteration);
+                sample((System.nanoTime() - start) / 3.6e12, ops / seconds);
+            }
+        } finally {
+            invokeAll(benchmark, lifecycleMethods(suite, TearDown.class, Level.Trial));
+        }
+
+        writeSamples(new File(outputDir, "soak-" + suite.getSimpleName() + ".tsv"));
+        analyze(System.out);
+        return flagged.isEmpty();
+    }
+
+    void applyParams(Object benchmark) throws Exception {
+        for (Class<?> c = suite; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                Param param = f.getAnnotation(Param.class);
+                if (param == null) {
+                    continue;
+                }
+                String value = params.containsKey(f.getName()) ? params.get(f.getName())
+                        : (param.value().length > 0 ? param.value()[0] : null);
+                if (value != null) {
+                    f.setAccessible(true);
+                    f.set(benchmark, convert(value, f.getType()));
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object convert(String value, Class<?> type) {
+        if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(value);
+        } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(value);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.valueOf(value);
+        } else if (type == double.class || type == Double.class) {
+            return Double.valueOf(value);
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class) type, value);
+        }
+        return value;
+    }
+
+    /** Annotated methods as JMH would run them: superclass ones first, an overriding method in place of the one it overrides */
+    static List<Method> lifecycleMethods(Class<?> suite, Class<? extends Annotation> annotation, Level level) {
+        List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+        for (Class<?> c = suite; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        List<Method> methods = new ArrayList<Method>();
+        Set<String> seen = new HashSet<String>();
+        for (Class<?> c : hierarchy) {
+            for (Method m : c.getDeclaredMethods()) {
+                Object a = m.getAnnotation(annotation);
+                if (a == null || !seen.add(m.getName())) {
+                    continue;
+                }
+                if ((a instanceof Setup && ((Setup) a).value() != level) || (a instanceof TearDown && ((TearDown) a).value() != level)) {
+                    continue;
+                }
+                m.setAccessible(true);
+                methods.add(m);
+            }
+        }
+        return methods;
+    }
+
+    static void invokeAll(Object target, List<Method> methods) throws Exception {
+        for (Method m : methods) {
+            invoke(target, m);
+        }
+    }
+
+    /** Calls through virtual dispatch, so a subclass override of an annotated method is the one that runs */
+    static Object invoke(Object target, Method m) throws Exception {
+        try {
+            return m.invoke(target);
+        } catch (InvocationTargetException ex) {
+            throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+        }
+    }
+
+    void sample(double hours, double opsPerSecond) {
+        elapsedHours.add(hours);
+        series.get("ops/s").add(opsPerSecond);
+        series.get("heap.retained.MB").add(JvmSampler.retainedHeapBytes() / (1024.0 * 1024.0));
+        series.get("threads").add((double) ManagementFactory.getThreadMXBean().getThreadCount());
+        series.get("classes.loaded").add((double) ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+        series.get("fds.open").add((double) openFileDescriptors());
+    }
+
+    /** -1 where the OS bean can't tell, e.g. on Windows */
+    static long openFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    void writeSamples(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (PrintStream out = new PrintStream(file, "UTF-8")) {
+            out.print("hours");
+            for (String metric : series.keySet()) {
+                out.print('\t' + metric);
+            }
+            out.println();
+            for (int i = 0; i < elapsedHours.size(); i++) {
+                out.print(elapsedHours.get(i));
+                for (List<Double> values : series.values()) {
+                    out.print("\t" + values.get(i));
+                }
+                out.println();
+            }
+        }
+        System.out.println("Soak samples saved to " + file);
+    }
+
+    /** Flag series growing (throughput: shrinking) significantly over the run, after the warmup intervals */
+    void analyze(PrintStream out) {
+        int first = Math.max(1, (int) Math.ceil(elapsedHours.size() * warmupFraction));  // Sample 0 has no throughput
+        out.println("Soak of " + suite.getSimpleName() + " over " + elapsedHours.size() + " samples:");
+        for (Map.Entry<String, List<Double>> e : series.entrySet()) {
+            SimpleRegression fit = new SimpleRegression();
+            for (int i = first; i < elapsedHours.size(); i++) {
+                if (e.getValue().get(i) >= 0) {
+                    fit.addData(elapsedHours.get(i), e.getValue().get(i));
+                }
+            }
+            if (fit.getN() < 3) {
+                out.println(String.format("  %-18s too few samples to tell", e.getKey()));
+                continue;
+            }
+            double hours = elapsedHours.get(elapsedHours.size() - 1) - elapsedHours.get(first);
+            double startValue = fit.predict(elapsedHours.get(first));
+            double change = fit.getSlope() * hours / Math.max(Math.abs(startValue), 1e-9);
+            boolean worse = e.getKey().equals("ops/s") ? change < 0 : change > 0;
+            boolean significant = fit.getSignificance() < alpha && Math.abs(change) >= minChange;
+            String verdict = "stable";
+            if (worse && significant) {
+                verdict = e.getKey().equals("ops/s") ? "DRIFTING DOWN" : "GROWING";
+                flagged.add(e.getKey());
+            }
+            out.println(String.format("  %-18s %+8.2f%% over the run, %+.4g per hour (p=%.3g) %s",
+                    e.getKey(), change * 100, fit.getSlope(), fit.getSignificance(), verdict));
+        }
+    }
+
+    public List<String> getFlagged() {
+        return flagged;
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Writes minimal freestyle jobs with completed builds straight into a JENKINS_HOME, so a large instance can be set up in
+ * seconds without running anything; Jenkins picks them up on its next start. Only file I/O, so it is usable from either
+ * side of the classloader boundary.
+ */
+public final class StubJobs {
+    static final String JOB_CONFIG = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<project>\n"
+            + "  <keepDependencies>false</keepDependencies>\n"
+            + "  <properties/>\n"
+            + "  <canRoam>true</canRoam>\n"
+            + "  <disabled>false</disabled>\n"
+            + "  <triggers/>\n"
+            + "  <concurrentBuild>false</concurrentBuild>\n"
+            + "  <builders/>\n"
+            + "  <publishers/>\n"
+            + "  <buildWrappers/>\n"
+            + "</project>\n";
+
+    private StubJobs() {
+        // Static utility
+    }
+
+    /** Write jobs named prefix-0 and up, each with builds numbered from 1 */
+    public static void write(File jenkinsHome, String prefix, int jobs, int buildsPerJob) throws IOException {
+        long timestamp = System.currentTimeMillis() - buildsPerJob * 60000L;
+        for (int j=0; j<jobs; j++) {
+            File jobDir = new File(new File(jenkinsHome, "jobs"), prefix + "-" + j);
+            FileUtils.writeStringToFile(new File(jobDir, "config.xml"), JOB_CONFIG, StandardCharsets.UTF_8);
+            FileUtils.writeStringToFile(new File(jobDir, "nextBuildNumber"), String.valueOf(buildsPerJob + 1), StandardCharsets.UTF_8);
+            for (int b=1; b<=buildsPerJob; b++) {
+                File buildDir = new File(new File(jobDir, "builds"), String.valueOf(b));
+                FileUtils.writeStringToFile(new File(buildDir, "build.xml"), "<?xml version='1.0' encoding='UTF-8'?>\n"
+                        + "<build>\n"
+                        + "  <actions/>\n"
+                        + "  <queueId>" + b + "</queueId>\n"
+                        + "  <timestamp>" + (timestamp + b * 60000L) + "</timestamp>\n"
+                        + "  <startTime>" + (timestamp + b * 60000L) + "</startTime>\n"
+                        + "  <result>SUCCESS</result>\n"
+                        + "  <duration>1000</duration>\n"
+                        + "  <keepLog>false</keepLog>\n"
+                        + "  <builtOn></builtOn>\n"
+                        + "  <workspace>/tmp</workspace>\n"
+                        + "</build>\n", StandardCharsets.UTF_8);
+                FileUtils.writeStringToFile(new File(buildDir, "log"), "Stub build\nFinished: SUCCESS\n", StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
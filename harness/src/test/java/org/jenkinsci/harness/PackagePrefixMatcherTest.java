@@ -0,0 +1,34 @@
+package org.jenkinsci.harness;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shared package matching as MaskingClassLoader uses it, against the default shared packages
+ */
+public class PackagePrefixMatcherTest {
+    final PackagePrefixMatcher matcher = PackagePrefixMatcher.parse(MaskingClassLoader.DEFAULT_SHARED_PACKAGES);
+
+    @Test
+    public void classes() {
+        assertTrue(matcher.matchesClass("org.eclipse.jetty.server.Server"));
+        assertTrue(matcher.matchesClass("org.openjdk.jmh.infra.Blackhole"));
+        assertFalse(matcher.matchesClass("org.eclipse.jettyx.Foo"));
+        assertFalse(matcher.matchesClass("org.jenkinsci.fixtures.JobFixture"));
+        assertFalse(matcher.matchesClass("javax.servlet"));
+        assertFalse(matcher.matchesClass("org/eclipse/jetty/server/Server"));
+    }
+
+    @Test
+    public void resources() {
+        assertTrue(matcher.matchesResource("org/eclipse/jetty/webapp/webdefault.xml"));
+        assertTrue(matcher.matchesResource("javax/servlet/resources/web-app_3_0.xsd"));
+        assertTrue(matcher.matchesResource("org/eclipse/jetty/webapp/"));
+        assertFalse(matcher.matchesResource("org/eclipse/jetty.xml"));
+        assertFalse(matcher.matchesResource("org/eclipse/jetty/"));
+        assertFalse(matcher.matchesResource("org/eclipse/jettyx/a.xml"));
+        assertFalse(matcher.matchesResource("org.eclipse.jetty.server.Server"));
+    }
+}
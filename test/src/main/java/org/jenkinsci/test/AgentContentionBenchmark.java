@@ -0,0 +1,114 @@
+package org.jenkinsci.test;
+
+import org.HdrHistogram.Histogram;
+import org.jenkinsci.fixtures.BuildBatch;
+import org.jenkinsci.fixtures.LocalAgentFarm;
+import org.jenkinsci.fixtures.PipelineShape;
+import org.jenkinsci.fixtures.QueueLatencyRecorder;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent pipeline builds whose node blocks all ask for one label served by a farm of local agents, so each
+ * invocation pays for executor allocation under contention plus the remoting round trips of running steps on agents.
+ * The wait for a labelled executor comes out as a secondary result.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AgentContentionBenchmark extends PipelineShapeBenchmark implements MeasuredOperation {
+    static final String JOB_NAME = "agentPipeline";
+    static final String AGENT_LABEL = "bench-agent";
+
+    @Param({"1", "10"})
+    public int agents;
+
+    @Param({"1", "4"})
+    public int executorsPerAgent;
+
+    /** Builds running at once, each wanting nodeBlocks executors per stage */
+    @Param({"10"})
+    public int concurrentBuilds;
+
+
+    // Jenkins-side state
+    LocalAgentFarm farm;
+    WorkflowJob job;
+    QueueLatencyRecorder latencyRecorder;
+
+    public Class getTestClass() {
+        return AgentContentionBenchmark.class;
+    }
+
+    @Override
+    public PipelineShape pipelineShape() {
+        return super.pipelineShape().nodeLabel(AGENT_LABEL);
+    }
+
+    @Benchmark
+    public Object agentContention() throws Exception {
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return runBuilds();
+    }
+
+    public Object runBuilds() throws Exception {
+        latencyRecorder.drain();
+        BuildBatch<WorkflowRun> batch = new BuildBatch<WorkflowRun>(job).builds(concurrentBuilds).parallelism(concurrentBuilds);
+        batch.run();
+        Histogram allocation = latencyRecorder.drain();
+        BenchmarkMetrics.record("agents.buildsPerSecond", batch.getBuildsPerSecond(), "builds/s");
+        BenchmarkMetrics.record("agents.nodeWait.p50", allocation.getValueAtPercentile(50), "ms");
+        BenchmarkMetrics.record("agents.nodeWait.p99", allocation.getValueAtPercentile(99), "ms");
+        BenchmarkMetrics.record("agents.nodeWait.max", allocation.getMaxValue(), "ms");
+        return batch.getElapsedNanos();
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            farm = new LocalAgentFarm(AGENT_LABEL).agents(agents).executorsPerAgent(executorsPerAgent);
+            farm.start();
+            job = createPipeline(JOB_NAME);
+            latencyRecorder = QueueLatencyRecorder.install(false);  // Only node blocks, not the builds themselves
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    @Override
+    public void tearDownTrial() {
+        try {
+            if (latencyRecorder != null) {
+                latencyRecorder.uninstall();
+            }
+            if (farm != null) {
+                farm.stop();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on teardown trial", ex);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(AgentContentionBenchmark.class, args);
+    }
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.test;
+
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup throughput through the masked loader chain (test loader, uberClassLoader, webapp loader, masker).
+ * Runs entirely on the JMH side: it only needs the loaders, not any Jenkins types.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ClassLoadingBenchmark extends BaseBenchmark {
+
+    /** A mix of core, plugin, shared (Jetty) and platform classes */
+    static final String[] CLASS_NAMES = {
+            "jenkins.model.Jenkins",
+            "hudson.model.FreeStyleProject",
+            "org.kohsuke.stapler.Stapler",
+            "org.jenkinsci.plugins.workflow.job.WorkflowJob",
+            "org.jenkinsci.plugins.workflow.cps.CpsFlowExecution",
+            "org.eclipse.jetty.server.Server",
+            "java.util.ArrayList"
+    };
+
+    /** Resource lookups aren't cached by any loader, and Stapler probes for plenty that don't exist */
+    static final String[] RESOURCE_NAMES = {
+            "hudson/model/Messages.properties",
+            "jenkins/model/Jenkins/manage.jelly",
+            "org/jenkinsci/plugins/workflow/job/WorkflowJob/configure.jelly",
+            "org/eclipse/jetty/webapp/webdefault.xml",
+            "lib/layout/layout.jelly",
+            "org/jenkinsci/plugins/workflow/job/WorkflowJob/missing.jelly"
+    };
+
+    public Class getTestClass() {
+        return ClassLoadingBenchmark.class;
+    }
+
+    @Benchmark
+    public void loadClassThroughTestLoader(Blackhole bh) throws Exception {
+        ClassLoader loader = maskedClassesRunner.getTestLoader();
+        for (String name : CLASS_NAMES) {
+            bh.consume(loader.loadClass(name));
+        }
+    }
+
+    @Benchmark
+    public void loadClassThroughCoreLoader(Blackhole bh) throws Exception {
+        ClassLoader loader = maskedClassesRunner.getCoreLoader();
+        for (String name : CLASS_NAMES) {
+            try {
+                bh.consume(loader.loadClass(name));
+            } catch (ClassNotFoundException cnfe) {
+                bh.consume(cnfe);  // Plugin classes aren't visible to core, which is part of the cost being measured
+            }
+        }
+    }
+
+    @Benchmark
+    public void getResourceThroughTestLoader(Blackhole bh) {
+        ClassLoader loader = maskedClassesRunner.getTestLoader();
+        for (String name : RESOURCE_NAMES) {
+            bh.consume(loader.getResource(name));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(ClassLoadingBenchmark.class, args);
+    }
+}
@@ -0,0 +1,169 @@
+package org.jenkinsci.test;
+
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.fixtures.BuildCompletionLatch;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Console log I/O. The write operations time one build producing high-volume output from echo steps or a single sh
+ * step; the read operation is one in-process read of a large completed log. Byte throughput comes out as a secondary
+ * result either way. Reading the log over HTTP with concurrent clients is {@link ConsoleLogHttpBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsoleLogBenchmark extends BaseBenchmark implements MeasuredOperation {
+    static final String WRITE_JOB = "consoleWrite";
+    static final String READ_JOB = "consoleRead";
+
+    /** writeEcho: echo step per line; writeSh: all lines from one sh step; logInputStream: whole log read in-process */
+    @Param({"writeEcho", "writeSh", "logInputStream"})
+    public String operation;
+
+    /** Lines written per build by the write operations */
+    @Param({"10000"})
+    public int writeLines;
+
+    @Param({"1024"})
+    public int lineBytes;
+
+    /** Size of the log the read operation reads */
+    @Param({"100"})
+    public int logMegabytes;
+
+    // Jenkins-side state
+    WorkflowJob writeJob;
+    WorkflowRun readRun;
+
+    public Class getTestClass() {
+        return ConsoleLogBenchmark.class;
+    }
+
+    @Benchmark
+    public Object consoleLog() throws Exception {
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return operation.equals("logInputStream") ? readInProcess() : writeLog();
+    }
+
+    public Object writeLog() throws Exception {
+        long start = System.nanoTime();
+        WorkflowRun run = BuildCompletionLatch.started(writeJob.scheduleBuild2(0));
+        BuildCompletionLatch.get().whenFinalized(run).get();
+        long elapsed = System.nanoTime() - start;
+        long written = run.getLogFile().length();
+        BenchmarkMetrics.record("console." + operation + ".bytesPerSecond", written / (elapsed / 1e9) / (1024 * 1024), "MB/s");
+        return written;
+    }
+
+    public Object readInProcess() throws Exception {
+        long start = System.nanoTime();
+        long read = 0;
+        byte[] buffer = new byte[8192];
+        InputStream in = readRun.getLogInputStream();
+        try {
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        BenchmarkMetrics.record("console." + operation + ".bytesPerSecond", read / ((System.nanoTime() - start) / 1e9) / (1024 * 1024), "MB/s");
+        return read;
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            String line = StringUtils.repeat("x", lineBytes - 1);
+            if (operation.equals("writeEcho")) {
+                writeJob = jenkins.createProject(WorkflowJob.class, WRITE_JOB);
+                writeJob.setDefinition(new CpsFlowDefinition(
+                        "def line = '" + line + "'\n" +
+                        "for (int i=0; i<" + writeLines + "; i++) {\n" +
+                        "  echo line\n" +
+                        "}", true));
+            } else if (operation.equals("writeSh")) {
+                writeJob = jenkins.createProject(WorkflowJob.class, WRITE_JOB);
+                writeJob.setDefinition(new CpsFlowDefinition(
+                        "node {\n" +
+                        "  sh \"yes '" + line + "' | head -n " + writeLines + "\"\n" +
+                        "}", true));
+            } else {
+                readRun = createLargeLog(logMegabytes, line);
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    /** A completed build whose log is padded out on disk, far quicker than having a build write 100s of MB */
+    static WorkflowRun createLargeLog(int logMegabytes, String line) throws Exception {
+        WorkflowJob p = Jenkins.getInstance().createProject(WorkflowJob.class, READ_JOB);
+        p.setDefinition(new CpsFlowDefinition("echo 'Padded log follows'", true));
+        WorkflowRun readRun = BuildCompletionLatch.started(p.scheduleBuild2(0));
+        BuildCompletionLatch.get().whenFinalized(readRun).get();
+
+        long target = logMegabytes * 1024L * 1024L;
+        byte[] lineBytes = (line + "\n").getBytes("UTF-8");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(readRun.getLogFile(), true), 1 << 16);
+        try {
+            long size = readRun.getLogFile().length();
+            while (size < target) {
+                out.write(lineBytes);
+                size += lineBytes.length;
+            }
+        } finally {
+            out.close();
+        }
+        System.out.println("Console log of " + readRun + " padded to " + readRun.getLogFile().length() + " bytes");
+        return readRun;
+    }
+
+    /** Drop the build just written, so the job's history doesn't grow through the trial */
+    @Override
+    public void tearDownInvocation() {
+        try {
+            if (writeJob != null) {
+                for (WorkflowRun run : new ArrayList<WorkflowRun>(writeJob.getBuilds())) {
+                    run.delete();
+                }
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on teardown invocation", ex);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(ConsoleLogBenchmark.class, args);
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.test;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.HttpLoadGenerator;
+import org.jenkinsci.harness.LoadResult;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One large completed console log read over HTTP by concurrent clients, each invocation is one burst of load.
+ * Latencies, requests/s and byte throughput come out as secondary results. Writing logs and reading them in-process is
+ * {@link ConsoleLogBenchmark}, which has no use for the client count.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsoleLogHttpBenchmark extends BaseBenchmark {
+
+    /** How much a tailing client fetches: the end of the log from this many bytes before its current length */
+    static final int TAIL_BYTES = 64 * 1024;
+
+    /**
+     * consoleText: whole log; progressiveText: whole log through the progressive endpoint; progressiveTail: last 64 KB
+     * through it, as clients tailing a log do
+     */
+    @Param({"consoleText", "progressiveText", "progressiveTail"})
+    public String operation;
+
+    @Param({"1024"})
+    public int lineBytes;
+
+    @Param({"100"})
+    public int logMegabytes;
+
+    @Param({"1", "16"})
+    public int clients;
+
+    @Param({"10"})
+    public int loadSeconds;
+
+    HttpLoadGenerator generator;
+    long bytesPerRequest;
+
+    // Jenkins-side state
+    WorkflowRun readRun;
+    long logBytes;
+
+    public Class getTestClass() {
+        return ConsoleLogHttpBenchmark.class;
+    }
+
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        List<URL> urls = new ArrayList<URL>();
+        urls.add(new URL(maskedClassesRunner.getBaseUrl() + bindInvoker("readTarget").invoke()));
+        long size = (Long) bindInvoker("getLogBytes").invoke();
+        bytesPerRequest = operation.equals("progressiveTail") ? Math.min(TAIL_BYTES, size) : size;
+        generator = new HttpLoadGenerator(urls)
+                .threads(clients)
+                .duration(loadSeconds, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public LoadResult consoleLogOverHttp() throws Exception {
+        LoadResult result = generator.run();
+        System.out.println(operation + ": " + result);
+        result.record("console." + operation);
+        BenchmarkMetrics.record("console." + operation + ".bytesPerSecond",
+                result.getRequestsPerSecond() * bytesPerRequest / (1024 * 1024), "MB/s");
+        return result;
+    }
+
+    public long getLogBytes() {
+        return logBytes;
+    }
+
+    /** Path relative to the Jenkins root for the operation */
+    public String readTarget() {
+        String runPath = "job/" + ConsoleLogBenchmark.READ_JOB + "/" + readRun.getNumber() + "/";
+        if (operation.equals("consoleText")) {
+            return runPath + "consoleText";
+        } else if (operation.equals("progressiveText")) {
+            return runPath + "logText/progressiveText?start=0";
+        } else {
+            return runPath + "logText/progressiveText?start=" + Math.max(0, logBytes - TAIL_BYTES);
+        }
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            readRun = ConsoleLogBenchmark.createLargeLog(logMegabytes, StringUtils.repeat("x", lineBytes - 1));
+            logBytes = readRun.getLogFile().length();
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(ConsoleLogHttpBenchmark.class, args);
+    }
+}
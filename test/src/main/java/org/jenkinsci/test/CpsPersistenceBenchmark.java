@@ -0,0 +1,164 @@
+package org.jenkinsci.test;
+
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.fixtures.BuildBatch;
+import org.jenkinsci.fixtures.BuildCompletionLatch;
+import org.jenkinsci.fixtures.CpsProgramUtil;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisting and restoring CPS program state of pipelines paused at an input step, holding a lot of Groovy state
+ * inside deeply nested closures. save: one program.dat write for every paused run. resume: restart Jenkins on the same
+ * home and wait until every run's program is loaded and its input step resumed, the startup and resume parts of that
+ * come out as secondary results.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CpsPersistenceBenchmark extends BaseBenchmark implements MeasuredOperation {
+    static final String JOB_NAME = "pausedPipeline";
+    static final long PAUSE_TIMEOUT_MINUTES = 5;
+
+    @Param({"save", "resume"})
+    public String operation;
+
+    /** Pipelines paused at once */
+    @Param({"1", "100"})
+    public int inFlight;
+
+    /** Roughly how much string data each program holds in a map */
+    @Param({"100"})
+    public int stateKilobytes;
+
+    /** Closures nested around the pause point */
+    @Param({"20"})
+    public int closureDepth;
+
+    // Jenkins-side state
+    List<WorkflowRun> paused;
+
+    public Class getTestClass() {
+        return CpsPersistenceBenchmark.class;
+    }
+
+    @Benchmark
+    public Object cpsPersistence() throws Exception {
+        if (operation.equals("save")) {
+            return ((MeasuredOperation) actualRunnable).runBenchmark();
+        }
+        long startupNanos = restartJenkins();
+        long start = System.nanoTime();
+        Object resumed = bindInvoker("awaitResumed").invoke();
+        BenchmarkMetrics.record("cps.restart.startup", startupNanos / 1e6, "ms");
+        BenchmarkMetrics.record("cps.restart.resume", (System.nanoTime() - start) / 1e6, "ms");
+        return resumed;
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return saveAll();
+    }
+
+    String script() {
+        return "def pad = '" + StringUtils.repeat("x", 1000) + "'\n" +
+                "def state = [:]\n" +
+                "for (int i=0; i<" + stateKilobytes + "; i++) {\n" +
+                "  state['key' + i] = 'value ' + i + pad\n" +
+                "}\n" +
+                "def nest(int depth, Closure body) {\n" +
+                "  if (depth == 0) {\n" +
+                "    body()\n" +
+                "  } else {\n" +
+                "    nest(depth - 1) {\n" +
+                "      body()\n" +
+                "    }\n" +
+                "  }\n" +
+                "}\n" +
+                "nest(" + closureDepth + ") {\n" +
+                "  input message: 'Paused for the benchmark'\n" +
+                "}\n" +
+                "echo \"Resumed holding ${state.size()} entries\"\n";
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            WorkflowJob p = Jenkins.getInstance().createProject(WorkflowJob.class, JOB_NAME);
+            p.setDefinition(new CpsFlowDefinition(script(), true));
+            p.setConcurrentBuild(true);
+            List<WorkflowRun> started = new ArrayList<WorkflowRun>(inFlight);
+            for (int i=0; i<inFlight; i++) {
+                started.add(BuildCompletionLatch.started(BuildBatch.schedule(p)));
+            }
+            for (WorkflowRun run : started) {
+                CpsProgramUtil.awaitStep(run, "input", PAUSE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            }
+            paused = started;
+            saveAll();  // So the program on disk is the paused one before any restart
+            System.out.println(inFlight + " pipelines paused, program.dat is "
+                    + CpsProgramUtil.getProgramFile(started.get(0)).length() + " bytes each");
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    /** Runs still paused, looked up again since a restart replaces them */
+    List<WorkflowRun> pausedRuns() {
+        if (paused == null) {
+            paused = new ArrayList<WorkflowRun>(inFlight);
+            for (WorkflowRun run : Jenkins.getInstance().getItemByFullName(JOB_NAME, WorkflowJob.class).getBuilds()) {
+                if (run.isBuilding()) {
+                    paused.add(run);
+                }
+            }
+        }
+        return paused;
+    }
+
+    public Object saveAll() throws Exception {
+        long bytes = 0;
+        for (WorkflowRun run : pausedRuns()) {
+            bytes += CpsProgramUtil.saveProgram(run);
+        }
+        BenchmarkMetrics.record("cps.programSize", bytes / 1024.0 / inFlight, "KB");
+        return bytes;
+    }
+
+    public Object awaitResumed() throws Exception {
+        int resumed = 0;
+        for (WorkflowRun run : pausedRuns()) {
+            if (!CpsProgramUtil.awaitResumed(run, PAUSE_TIMEOUT_MINUTES, TimeUnit.MINUTES).isEmpty()) {
+                resumed++;
+            }
+        }
+        if (resumed != inFlight) {
+            throw new IllegalStateException("Only " + resumed + " of " + inFlight + " pipelines resumed at their input step");
+        }
+        return resumed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(CpsPersistenceBenchmark.class, args);
+    }
+}
@@ -0,0 +1,152 @@
+package org.jenkinsci.test;
+
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.fixtures.BuildCompletionLatch;
+import org.jenkinsci.fixtures.FlowNodeStorageUtil;
+import org.jenkinsci.fixtures.JobFixture;
+import org.jenkinsci.fixtures.PipelineShape;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.graph.FlowGraphWalker;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.support.storage.FlowNodeStorage;
+import org.jenkinsci.plugins.workflow.support.storage.SimpleXStreamFlowNodeStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The flow node storage layer on its own, without graph analysis or HTTP on top: each invocation is one pass over every
+ * node of a single run, so throughput in nodes/s is the node count divided by the reported time.
+ * Cold passes first reload the job from disk, so no FlowNode instances survive from earlier passes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 60, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 60, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class FlowNodeStorageBenchmark extends BaseBenchmark implements MeasuredOperation {
+    static final String JOB_NAME = "storagePipeline";
+
+    /** Approximate number of flow nodes in the run: one per echo step, plus a handful for the stage & flow start/end */
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    /** loadCold/loadWarm: fetch each node by id; iterateCold/iterateWarm: walk the graph from its heads; store: write each node */
+    @Param({"loadCold", "loadWarm", "iterateCold", "iterateWarm", "store"})
+    public String operation;
+
+
+    // Jenkins-side state
+    JobFixture fixture;
+    WorkflowRun run;
+    List<String> nodeIds;
+    List<FlowNode> nodesToStore;
+    File storeDir;
+
+    public Class getTestClass() {
+        return FlowNodeStorageBenchmark.class;
+    }
+
+    @Benchmark
+    public Object flowNodeStorageBenchmark() throws Exception {
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return runOperation();
+    }
+
+    public Object runOperation() throws Exception {
+        int count = 0;
+        if (operation.startsWith("load")) {
+            FlowNodeStorage storage = FlowNodeStorageUtil.getStorage(run);
+            for (String id : nodeIds) {
+                if (storage.getNode(id) != null) {
+                    count++;
+                }
+            }
+        } else if (operation.startsWith("iterate")) {
+            for (FlowNode node : new FlowGraphWalker(run.getExecution())) {
+                count++;
+            }
+        } else {
+            SimpleXStreamFlowNodeStorage storage = new SimpleXStreamFlowNodeStorage(run.getExecution(), storeDir);
+            for (FlowNode node : nodesToStore) {
+                storage.storeNode(node);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            WorkflowJob p = jenkins.createProject(WorkflowJob.class, JOB_NAME);
+            p.setDefinition(new CpsFlowDefinition(new PipelineShape().stages(1).stepsPerStage(nodes).toScript(), true));
+            WorkflowRun built = BuildCompletionLatch.started(p.scheduleBuild2(0));
+            BuildCompletionLatch.get().whenFinalized(built).get();
+            nodeIds = new ArrayList<String>();
+            for (FlowNode node : new FlowGraphWalker(built.getExecution())) {
+                nodeIds.add(node.getId());
+            }
+            System.out.println("Flow graph has " + nodeIds.size() + " nodes");
+            fixture = JobFixture.capture(p);
+            run = built;
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    @Override
+    public void setupInvocation() {
+        try {
+            if (operation.endsWith("Cold")) {
+                WorkflowJob p = fixture.restore(WorkflowJob.class);
+                run = p.getBuildByNumber(1);
+                FlowNodeStorageUtil.flushCache(run);
+            } else if (operation.equals("store")) {
+                FlowNodeStorage storage = FlowNodeStorageUtil.getStorage(run);
+                nodesToStore = new ArrayList<FlowNode>(nodeIds.size());
+                for (String id : nodeIds) {
+                    nodesToStore.add(storage.getNode(id));
+                }
+                storeDir = Files.createTempDirectory("flowNodeStore").toFile();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup invocation", ex);
+        }
+    }
+
+    @Override
+    public void tearDownInvocation() {
+        nodesToStore = null;
+        if (storeDir != null) {
+            FileUtils.deleteQuietly(storeDir);
+            storeDir = null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(FlowNodeStorageBenchmark.class, args);
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.test;
+
+import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.rest.external.RunExt;
+import jenkins.model.Jenkins;
+import org.jenkinsci.fixtures.BuildCompletionLatch;
+import org.jenkinsci.fixtures.FlowGraphGenerator;
+import org.jenkinsci.fixtures.JobFixture;
+import org.jenkinsci.fixtures.PipelineShape;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage view and graph analysis over flow graphs far bigger than we could build in setup time: the graph is generated
+ * straight into storage (see {@link FlowGraphGenerator}) in the configured shape, with graphScale times the steps per
+ * stage. For over a million nodes try -p graphScale=10000 -p parallelBranches=10.
+ * Each invocation evicts the run and reloads it, so nodes are read back from disk as for a run nobody has looked at yet.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphAnalysisBenchmark extends PipelineShapeBenchmark implements MeasuredOperation {
+    static final String JOB_NAME = "generatedGraph";
+
+    @Param({"1", "100", "1000"})
+    public int graphScale;
+
+    /** runExt: stage view's run analysis; stageNodes: FlowNodeUtil's stage lookup; depthFirstScan: visit every node */
+    @Param({"runExt", "stageNodes", "depthFirstScan"})
+    public String analysis;
+
+
+    // Jenkins-side state
+    WorkflowJob job;
+    WorkflowRun run;
+
+    public Class getTestClass() {
+        return GraphAnalysisBenchmark.class;
+    }
+
+    @Override
+    public PipelineShape pipelineShape() {
+        return super.pipelineShape().stepsPerStage(stepsPerStage * graphScale);
+    }
+
+    @Benchmark
+    public Object graphAnalysis() throws Exception {
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return analyze();
+    }
+
+    public Object analyze() throws Exception {
+        if (analysis.equals("runExt")) {
+            return RunExt.createNew(run);
+        } else if (analysis.equals("stageNodes")) {
+            return FlowNodeUtil.getStageNodes(run.getExecution()).size();
+        } else if (analysis.equals("depthFirstScan")) {
+            return new DepthFirstScanner().allNodes(run.getExecution()).size();
+        }
+        throw new IllegalArgumentException("Unknown analysis: " + analysis);
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            WorkflowJob p = jenkins.createProject(WorkflowJob.class, JOB_NAME);
+            p.setDefinition(new CpsFlowDefinition("echo 'seed'", true));
+            WorkflowRun seed = BuildCompletionLatch.started(p.scheduleBuild2(0));
+            BuildCompletionLatch.get().whenFinalized(seed).get();
+
+            long start = System.nanoTime();
+            FlowGraphGenerator generator = new FlowGraphGenerator(pipelineShape());
+            generator.generate(seed);
+            System.out.println(String.format("Generated %d flow nodes (%s) in %.1f s",
+                    generator.getNodesWritten(), pipelineShape(), (System.nanoTime() - start) / 1e9));
+
+            // Load the job from what was written, so nothing generated is still referenced
+            job = JobFixture.capture(p).restore(WorkflowJob.class);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    @Override
+    public void setupInvocation() {
+        job.getLazyBuildMixIn()._getRuns().purgeCache();
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidateAll();
+        run = job.getBuildByNumber(1);
+    }
+
+    @Override
+    public void tearDownInvocation() {
+        run = null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(GraphAnalysisBenchmark.class, args);
+    }
+}
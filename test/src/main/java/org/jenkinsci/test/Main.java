@@ -6,16 +6,23 @@ import java.util.concurrent.TimeUnit;
 import hudson.model.Item;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
+import org.jenkinsci.harness.BenchmarkLauncher;
 import org.jenkinsci.harness.SingletonBenchmark;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
-import org.openjdk.jmh.runner.Runner;
-import org.openjdk.jmh.runner.options.Options;
-import org.openjdk.jmh.runner.options.OptionsBuilder;
-import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
 
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 300, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 120, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
 public class Main extends SingletonBenchmark<Run>  {
 
     public Class getTestClass() {
@@ -61,28 +68,7 @@ public class Main extends SingletonBenchmark<Run>  {
     public static void main(String[] args) throws Exception {
         /*JenkinsMaskedClassesRunner runner = new JenkinsMaskedClassesRunner();
         runner.runSingle(Main.class);*/
-        Options opt = new OptionsBuilder()
-                // Specify which benchmarks to run.
-                // You can be more specific if you'd like to run only one benchmark per test.
-                .include(Main.class.getName() + ".*")
-                // Set the following options as needed
-                .mode (Mode.AverageTime)
-                .timeUnit(TimeUnit.MICROSECONDS)
-                .warmupTime(TimeValue.seconds(300))
-                .warmupIterations(1)
-                .measurementTime(TimeValue.seconds(120))
-                .measurementIterations(3)
-                .threads(1)
-                .forks(1)
-                .shouldFailOnError(true)
-                .shouldDoGC(true)
-                .build();
-        try {
-            new Runner(opt).run();
-        } catch (Exception ex) {
-            System.exit(0);
-        } finally {
-            System.exit(0);
-        }
+
+        BenchmarkLauncher.run(Main.class, args);
     }
 }
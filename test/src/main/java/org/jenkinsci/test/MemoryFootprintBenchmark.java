@@ -0,0 +1,119 @@
+package org.jenkinsci.test;
+
+import jenkins.model.Jenkins;
+import org.jenkinsci.fixtures.JobFixture;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.JvmSampler;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.graph.FlowGraphWalker;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retained heap per loaded entity. Each invocation starts from a freshly restored job with nothing loaded, then loads
+ * all its runs and then every flow node, forcing a full GC after each step: the growth in retained heap divided by the
+ * number of entities loaded is reported as bytes per run and per node. A run loads its execution and the execution's
+ * head nodes as part of loading itself (WorkflowRun.onLoad), so the per-run figure includes those.
+ * Compare footprints of the workflow plugins with the stock-workflow Maven profile, which swaps in the released versions.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MemoryFootprintBenchmark extends PipelineShapeBenchmark implements MeasuredOperation {
+    static final String JOB_NAME = "footprintPipeline";
+
+    @Param({"10", "100"})
+    public int runs;
+
+
+    // Jenkins-side state
+    JobFixture fixture;
+    WorkflowJob job;
+
+    public Class getTestClass() {
+        return MemoryFootprintBenchmark.class;
+    }
+
+    @Benchmark
+    public Object memoryFootprint() throws Exception {
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return loadEntities();
+    }
+
+    /** Returns everything loaded, so none of it can be collected before the last measurement */
+    public Object loadEntities() throws Exception {
+        long base = JvmSampler.retainedHeapBytes();
+
+        List<WorkflowRun> loadedRuns = new ArrayList<WorkflowRun>(job.getBuilds());
+        long withRuns = JvmSampler.retainedHeapBytes();
+
+        List<FlowNode> nodes = new ArrayList<FlowNode>();
+        int heads = 0;  // Already loaded with their run
+        for (WorkflowRun run : loadedRuns) {
+            heads += run.getExecution().getCurrentHeads().size();
+            for (FlowNode node : new FlowGraphWalker(run.getExecution())) {
+                nodes.add(node);
+            }
+        }
+        long withNodes = JvmSampler.retainedHeapBytes();
+
+        BenchmarkMetrics.record("footprint.runWithExecution", (double) (withRuns - base) / loadedRuns.size(), "B");
+        BenchmarkMetrics.record("footprint.node", (double) (withNodes - withRuns) / Math.max(1, nodes.size() - heads), "B");
+        List<Object> loaded = new ArrayList<Object>();
+        loaded.add(loadedRuns);
+        loaded.add(nodes);
+        return loaded;
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            System.out.println("workflow-api " + jenkins.getPluginManager().getPlugin("workflow-api").getVersion()
+                    + ", workflow-support " + jenkins.getPluginManager().getPlugin("workflow-support").getVersion());
+            WorkflowJob p = createPipeline(JOB_NAME);
+            buildHistory(p, runs);
+            fixture = JobFixture.capture(p);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    @Override
+    public void setupInvocation() {
+        try {
+            job = fixture.restore(WorkflowJob.class);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup invocation", ex);
+        }
+    }
+
+    @Override
+    public void tearDownInvocation() {
+        job = null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(MemoryFootprintBenchmark.class, args);
+    }
+}
@@ -3,39 +3,94 @@ package org.jenkinsci.test;
 import hudson.model.Item;
 import hudson.model.Result;
 import jenkins.model.Jenkins;
-import org.jenkinsci.harness.BaseBenchmark;
-import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.fixtures.BuildCompletionLatch;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.DefaultProfilers;
+import org.jenkinsci.harness.JvmProfiler;
+import org.jenkinsci.harness.MeasuredOperation;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
-import org.openjdk.jmh.runner.Runner;
-import org.openjdk.jmh.runner.options.Options;
-import org.openjdk.jmh.runner.options.OptionsBuilder;
-import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
 
-import java.lang.reflect.Method;
 import java.util.concurrent.TimeUnit;
 
-public class PipelineBenchmark extends BaseBenchmark  {
-    Method benchmarkExecutionMethod;
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 300, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 60, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@DefaultProfilers(JvmProfiler.class)
+public class PipelineBenchmark extends PipelineShapeBenchmark implements MeasuredOperation {
+    /** What the suite ran before pipelines were generated from a shape */
+    static final String LEGACY_SCRIPT = "" +
+            "for (int i=0; i<15; i++) {\n" +
+            "    stage \"stage $i\" \n" +
+            "    echo \"ran my stage is $i\"        \n" +
+            "    node {\n" +
+            "        sh 'whoami';\n" +
+            "    }\n" +
+            "}\n" +
+            "\n" +
+            "stage 'label based'\n" +
+            "echo 'wait for executor'\n" +
+            "node {\n" +
+            "    stage 'things using node'\n" +
+            "    for (int i=0; i<200; i++) {\n" +
+            "        echo \"we waited for this $i seconds\"    \n" +
+            "    }\n" +
+            "}";
+
+    /**
+     * legacy: the fixed script this suite always ran (15 stages with a node block running sh each, then 200 echoes in
+     * one node block), so results stay comparable with history; shape: the pipeline the shape params describe
+     */
+    @Param({"legacy"})
+    public String workload;
 
     @Benchmark
     public Object runPipelineBenchmark() throws Exception {
-        // We can't cast the actualRunnable to anything that isn't in the main harness package due to custom classloading
-        return benchmarkExecutionMethod.invoke(actualRunnable);
+        // We can't cast the actualRunnable to anything that isn't in the main harness package due to custom classloading,
+        // but an interface call through the shared MeasuredOperation gets inlined like any other
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return runPipeline();
     }
 
     public Class getTestClass() {
         return PipelineBenchmark.class;
     }
 
+    @Override
+    public String pipelineScript() {
+        if (workload.equals("legacy")) {
+            return LEGACY_SCRIPT;
+        } else if (workload.equals("shape")) {
+            return super.pipelineScript();
+        }
+        throw new IllegalArgumentException("Unknown workload: " + workload);
+    }
+
     public FlowExecution runPipeline() throws Exception {
         WorkflowJob p = Jenkins.getInstance().getItemByFullName("benchmarkPipeline", WorkflowJob.class);
-        WorkflowRun run = p.scheduleBuild2(0).get();
-        if (run.isBuilding()) {
-            System.out.println("Build still running!");
+        long start = System.currentTimeMillis();
+        WorkflowRun run = BuildCompletionLatch.started(p.scheduleBuild2(0));
+        BuildCompletionLatch.get().whenFinalized(run).get();
+        long elapsed = System.currentTimeMillis() - start;
+        // The job is recreated per invocation, so every run is #1: make sure each wait really covered its own build
+        if (run.isBuilding() || elapsed < run.getDuration()) {
+            throw new IllegalStateException("Returned after " + elapsed + " ms, before " + run + " finished ("
+                    + run.getDuration() + " ms)");
         }
         if (run.getResult() != Result.SUCCESS) {
             System.out.println("Non-success build: "+run.getResult());
@@ -43,34 +98,10 @@ public class PipelineBenchmark extends BaseBenchmark  {
         return run.getExecution();
     }
 
-    public void setup() throws Exception {
-        super.setup();
-        benchmarkExecutionMethod = actualRunnable.getClass().getMethod("benchmarkStageView");
-    }
-
     @Override
     public void setupInvocation() {
         try{
-            deleteProjects();
-            WorkflowJob p = Jenkins.getInstance().createProject(WorkflowJob.class, "benchmarkPipeline");
-            p.setDefinition(new CpsFlowDefinition("" +
-                    "for (int i=0; i<15; i++) {\n" +
-                    "    stage \"stage $i\" \n" +
-                    "    echo \"ran my stage is $i\"        \n" +
-                    "    node {\n" +
-                    "        sh 'whoami';\n" +
-                    "    }\n" +
-                    "}\n" +
-                    "\n" +
-                    "stage 'label based'\n" +
-                    "echo 'wait for executor'\n" +
-                    "node {\n" +
-                    "    stage 'things using node'\n" +
-                    "    for (int i=0; i<200; i++) {\n" +
-                    "        echo \"we waited for this $i seconds\"    \n" +
-                    "    }\n" +
-                    "}", true));
-            // Horrifying reflection because you can't do a cast b/w normal and JMH class
+            createPipeline("benchmarkPipeline");
         } catch (Exception ex) {
             ex.printStackTrace();
             try {
@@ -103,28 +134,7 @@ public class PipelineBenchmark extends BaseBenchmark  {
     public static void main(String[] args) throws Exception {
         /*JenkinsMaskedClassesRunner runner = new JenkinsMaskedClassesRunner();
         runner.runSingle(Main.class);*/
-        Options opt = new OptionsBuilder()
-                // Specify which benchmarks to run.
-                // You can be more specific if you'd like to run only one benchmark per test.
-                .include(PipelineBenchmark.class.getName() + ".*")
-                // Set the following options as needed
-                .mode (Mode.AverageTime)
-                .timeUnit(TimeUnit.SECONDS)
-                .warmupTime(TimeValue.seconds(300))
-                .warmupIterations(1)
-                .measurementTime(TimeValue.seconds(60))
-                .measurementIterations(3)
-                .threads(1)
-                .forks(1)
-                .shouldFailOnError(true)
-                .shouldDoGC(true)
-                .build();
-        try {
-            new Runner(opt).run();
-        } catch (Exception ex) {
-            System.exit(0);
-        } finally {
-            System.exit(0);
-        }
+
+        BenchmarkLauncher.run(PipelineBenchmark.class, args);
     }
 }
@@ -0,0 +1,70 @@
+package org.jenkinsci.test;
+
+import hudson.model.Item;
+import jenkins.model.Jenkins;
+import org.jenkinsci.fixtures.BuildBatch;
+import org.jenkinsci.fixtures.PipelineShape;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Base for benchmarks over a generated pipeline: the shape is set by JMH params, so passing several values for one
+ * (for example -p parallelBranches=1,10,100) gives a scaling curve along that dimension. Suites that ran a fixed script
+ * before keep it as their default workload, pass -p workload=shape to them to use the shape instead.
+ */
+public abstract class PipelineShapeBenchmark extends BaseBenchmark {
+
+    @Param({"15"})
+    public int stages;
+
+    @Param({"0"})
+    public int parallelBranches;
+
+    @Param({"0"})
+    public int nestingDepth;
+
+    @Param({"1"})
+    public int stepsPerStage;
+
+    @Param({"1"})
+    public int nodeBlocks;
+
+    public PipelineShape pipelineShape() {
+        return new PipelineShape()
+                .stages(stages)
+                .parallelBranches(parallelBranches)
+                .nestingDepth(nestingDepth)
+                .stepsPerStage(stepsPerStage)
+                .nodeBlocks(nodeBlocks);
+    }
+
+    /** Create a pipeline job running the configured shape, replacing any existing item of that name */
+    public WorkflowJob createPipeline(String name) throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        Item existing = jenkins.getItemByFullName(name);
+        if (existing != null) {
+            existing.delete();
+        }
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, name);
+        p.setDefinition(new CpsFlowDefinition(pipelineScript(), true));
+        return p;
+    }
+
+    /** The script {@link #createPipeline} sets, override to run something other than the configured shape */
+    public String pipelineScript() {
+        return pipelineShape().toScript();
+    }
+
+    /** How many history builds run at once while setting up, does not change what is measured */
+    static final int HISTORY_PARALLELISM = Integer.getInteger("jenkins.benchmark.historyParallelism", 4);
+
+    /** Run builds of the job until the given number more have completed */
+    public void buildHistory(WorkflowJob p, int runs) throws Exception {
+        BuildBatch<WorkflowRun> batch = new BuildBatch<WorkflowRun>(p).builds(runs).parallelism(HISTORY_PARALLELISM);
+        batch.run();
+        System.out.println(String.format("Built %d runs of history in %.1f s", runs, batch.getElapsedNanos() / 1e9));
+    }
+}
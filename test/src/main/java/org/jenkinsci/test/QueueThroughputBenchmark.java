@@ -0,0 +1,169 @@
+package org.jenkinsci.test;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.Jenkins;
+import org.HdrHistogram.Histogram;
+import org.jenkinsci.fixtures.BuildBatch;
+import org.jenkinsci.fixtures.BuildCompletionLatch;
+import org.jenkinsci.fixtures.QueueLatencyRecorder;
+import org.jenkinsci.fixtures.QueueMaintainRecorder;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.MeasuredOperation;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Floods the build queue with builds spread across many jobs and executors: each invocation schedules every build at
+ * once and completes when all are finalized. Builds/s, time in queue from enqueue to executor start, and how long the
+ * queue maintenance passes Jenkins runs during the flood take come out as secondary results.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueueThroughputBenchmark extends BaseBenchmark implements MeasuredOperation {
+
+    /** freestyle: empty freestyle projects; pipeline: a node block, so each build queues twice (flyweight, then node) */
+    @Param({"freestyle", "pipeline"})
+    public String jobType;
+
+    @Param({"50"})
+    public int jobs;
+
+    @Param({"20"})
+    public int buildsPerJob;
+
+    @Param({"2", "16"})
+    public int executors;
+
+    // Jenkins-side state
+    List<Job> floodJobs;
+    QueueLatencyRecorder latencyRecorder;
+    QueueMaintainRecorder maintainRecorder;
+
+    public Class getTestClass() {
+        return QueueThroughputBenchmark.class;
+    }
+
+    @Benchmark
+    public Object queueFlood() throws Exception {
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
+    }
+
+    @Override
+    public Object runBenchmark() throws Exception {
+        return flood();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Object flood() throws Exception {
+        latencyRecorder.drain();
+        maintainRecorder.drain();
+
+        long start = System.nanoTime();
+        List<QueueTaskFuture<Run>> scheduled = new ArrayList<QueueTaskFuture<Run>>(jobs * buildsPerJob);
+        for (int i=0; i<buildsPerJob; i++) {
+            for (Job job : floodJobs) {
+                scheduled.add(BuildBatch.schedule(job));
+            }
+        }
+        List<Run> runs = new ArrayList<Run>(scheduled.size());
+        for (QueueTaskFuture<Run> future : scheduled) {
+            runs.add(BuildCompletionLatch.started(future));
+        }
+        BuildCompletionLatch.get().whenAllFinalized(runs).get();
+        long elapsed = System.nanoTime() - start;
+
+        double buildsPerSecond = runs.size() / (elapsed / 1e9);
+        Histogram latency = latencyRecorder.drain();
+        Histogram maintainMicros = maintainRecorder.drain();
+        BenchmarkMetrics.record("queue.buildsPerSecond", buildsPerSecond, "builds/s");
+        BenchmarkMetrics.record("queue.latency.p50", latency.getValueAtPercentile(50), "ms");
+        BenchmarkMetrics.record("queue.latency.p99", latency.getValueAtPercentile(99), "ms");
+        BenchmarkMetrics.record("queue.latency.max", latency.getMaxValue(), "ms");
+        BenchmarkMetrics.record("queue.maintain.p50", maintainMicros.getValueAtPercentile(50) / 1000.0, "ms");
+        BenchmarkMetrics.record("queue.maintain.max", maintainMicros.getMaxValue() / 1000.0, "ms");
+        System.out.println(String.format("%d builds at %.1f builds/s, queue latency p50=%d ms p99=%d ms, maintain p50=%.2f ms over %d passes",
+                runs.size(), buildsPerSecond, latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                maintainMicros.getValueAtPercentile(50) / 1000.0, maintainMicros.getTotalCount()));
+        return runs.size();
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            Jenkins jenkins = Jenkins.getInstance();
+            jenkins.setNumExecutors(executors);
+            floodJobs = new ArrayList<Job>(jobs);
+            for (int i=0; i<jobs; i++) {
+                if (jobType.equals("freestyle")) {
+                    FreeStyleProject p = jenkins.createProject(FreeStyleProject.class, "flood-" + i);
+                    p.setConcurrentBuild(true);
+                    floodJobs.add(p);
+                } else if (jobType.equals("pipeline")) {
+                    WorkflowJob p = jenkins.createProject(WorkflowJob.class, "flood-" + i);
+                    p.setDefinition(new CpsFlowDefinition("node { echo 'flood' }", true));
+                    p.setConcurrentBuild(true);
+                    floodJobs.add(p);
+                } else {
+                    throw new IllegalArgumentException("Unknown job type: " + jobType);
+                }
+            }
+            latencyRecorder = QueueLatencyRecorder.install(true);
+            maintainRecorder = QueueMaintainRecorder.install();
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    /** Drop the builds, so each flood starts from the same number of runs on disk */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void tearDownInvocation() {
+        try {
+            for (Job job : floodJobs) {
+                for (Run run : new ArrayList<Run>(job.getBuilds())) {  // Copy, deleting modifies the build map
+                    run.delete();
+                }
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on teardown invocation", ex);
+        }
+    }
+
+    @Override
+    public void tearDownTrial() {
+        if (latencyRecorder != null) {
+            latencyRecorder.uninstall();
+        }
+        if (maintainRecorder != null) {
+            try {
+                maintainRecorder.uninstall();
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException("Failed on teardown trial", ex);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(QueueThroughputBenchmark.class, args);
+    }
+}
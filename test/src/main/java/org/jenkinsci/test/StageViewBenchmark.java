@@ -2,9 +2,8 @@ package org.jenkinsci.test;
 
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
 import com.cloudbees.workflow.rest.external.RunExt;
-import com.google.common.cache.LoadingCache;
+import com.cloudbees.workflow.util.JSONReadWrite;
 import hudson.PluginWrapper;
-import hudson.model.Computer;
 import hudson.model.Item;
 import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
@@ -12,70 +11,115 @@ import jenkins.model.Jenkins;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.jenkinsci.harness.BaseBenchmark;
-import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.fixtures.FlowNodeStorageUtil;
+import org.jenkinsci.fixtures.JobFixture;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.DefaultProfilers;
+import org.jenkinsci.harness.JvmProfiler;
+import org.jenkinsci.harness.MeasuredOperation;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
 import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
-import org.jenkinsci.plugins.workflow.support.storage.SimpleXStreamFlowNodeStorage;
 import org.openjdk.jmh.annotations.Benchmark;
-import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
-import org.openjdk.jmh.annotations.Setup;
-import org.openjdk.jmh.profile.StackProfiler;
-import org.openjdk.jmh.runner.Runner;
-import org.openjdk.jmh.runner.options.Options;
-import org.openjdk.jmh.runner.options.OptionsBuilder;
-import org.openjdk.jmh.runner.options.TimeValue;
-import org.openjdk.jmh.runner.options.WarmupMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
-public class StageViewBenchmark extends BaseBenchmark  {
-    Method benchmarkExecutionMethod;
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 300, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 7, time = 60, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@DefaultProfilers(JvmProfiler.class)
+public class StageViewBenchmark extends PipelineShapeBenchmark implements MeasuredOperation {
+    /** What the suite ran before pipelines were generated from a shape */
+    static final String LEGACY_SCRIPT = "" +
+            "for (int i=0; i<15; i++) {\n" +
+            "    stage \"stage $i\" \n" +
+            "    echo \"ran my stage is $i\"        \n" +
+            "    node {\n" +
+            "        echo 'whoami';\n" +
+            "    }\n" +
+            "}\n" +
+            "node {sh'whoami';} \n"+
+            "\n" +
+            "stage 'label based'\n" +
+            "echo 'wait for executor'\n" +
+            "node {\n" +
+            "    stage 'things using node'\n" +
+            "    for (int i=0; i<200; i++) {\n" +
+            "        echo \"we waited for this $i seconds\"    \n" +
+            "    }\n" +
+            "}";
+
+    JobFixture fixture;
+
+    /** Number of completed runs in the job's history */
+    @Param({"10"})
+    public int historySize;
+
+    /**
+     * Which layer to measure, so a regression can be pinned to one: inProcess runs the graph analysis (RunExt creation),
+     * jsonOnly renders precomputed results to JSON, http does the full request through Jetty & Stapler
+     */
+    @Param({"inProcess", "jsonOnly", "http"})
+    public String stageViewMode;
+
+    /**
+     * legacy: the fixed script this suite always ran (15 stages with a node block each, one sh step, then 200 echoes in
+     * one node block), so results stay comparable with history; shape: the pipeline the shape params describe
+     */
+    @Param({"legacy"})
+    public String workload;
+
+    /** Default page size of wfapi/runs */
+    static final int RUNS_LISTED = 10;
+
     HttpClient client = new HttpClient();
-    GetMethod method = new GetMethod("http://127.0.0.1:8080/jenkins/job/benchmarkPipeline/wfapi/runs?fullStages=true");
+    GetMethod method;
+    /** Same writer wfapi responses go through, so its configured mapper rather than Jackson defaults */
+    JSONReadWrite jsonWriter = new JSONReadWrite();
+    List<RunExt> preparedRunExts;
 
     @Benchmark
     public Object stageViewBenchmark() throws Exception {
-        // We can't cast the actualRunnable to anything that isn't in the main harness package due to custom classloading
-        return benchmarkExecutionMethod.invoke(actualRunnable);
+        // We can't cast the actualRunnable to anything that isn't in the main harness package due to custom classloading,
+        // but an interface call through the shared MeasuredOperation gets inlined like any other
+        return ((MeasuredOperation) actualRunnable).runBenchmark();
     }
 
-    public Class getTestClass() {
-        return StageViewBenchmark.class;
+    @Override
+    public Object runBenchmark() throws Exception {
+        return benchmarkStageView();
     }
 
-    public boolean isSomethingHappening() {
-        Jenkins jenkins = Jenkins.getInstance();
-        if (!jenkins.getQueue().isEmpty())
-            return true;
-        for (Computer n : jenkins.getComputers())
-            if (!n.isIdle())
-                return true;
-        return false;
+    public Class getTestClass() {
+        return StageViewBenchmark.class;
     }
 
-    public void waitUntilDone() {
-        try {
-            while(isSomethingHappening()) {
-                Thread.sleep(100);
-            }
-        } catch (InterruptedException ie) {
-            throw new RuntimeException(ie);
+    @Override
+    public String pipelineScript() {
+        if (workload.equals("legacy")) {
+            return LEGACY_SCRIPT;
+        } else if (workload.equals("shape")) {
+            return super.pipelineScript();
         }
+        throw new IllegalArgumentException("Unknown workload: " + workload);
     }
 
     private int readAndCount(InputStream strm) throws IOException {
@@ -93,89 +137,65 @@ public class StageViewBenchmark extends BaseBenchmark  {
     }
 
     public Object benchmarkStageView() throws Exception {
-        // Full HTTP request issuing
-
-//        GetMethod method = new GetMethod("http://localhost:8080/jenkins/job/benchmarkPipeline/wfapi/runs");
-        client.executeMethod(method);
-        InputStream strm = new BufferedInputStream(method.getResponseBodyAsStream());
-        return new Integer(readAndCount(strm));
-
-        /*
-        // Run just the pipeline analysis internals
-        WorkflowRun run = Jenkins.getInstance().getItemByFullName("benchmarkPipeline", WorkflowJob.class).getLastBuild();
-        RunExt ext = RunExt.createNew(run);
-        return ext;
-         */
+        if (stageViewMode.equals("http")) {
+            // Full HTTP request issuing
+            client.executeMethod(method);
+            InputStream strm = new BufferedInputStream(method.getResponseBodyAsStream());
+            return new Integer(readAndCount(strm));
+        } else if (stageViewMode.equals("inProcess")) {
+            // Run just the pipeline analysis internals
+            return createRunExts();
+        } else if (stageViewMode.equals("jsonOnly")) {
+            // Just render analysis results computed during setup
+            return jsonWriter.toString(preparedRunExts);
+        }
+        throw new IllegalArgumentException("Unknown stage view mode: " + stageViewMode);
     }
 
-    @Setup(Level.Trial)
-    public void setupIterationInvoker() {
-        try{
-            this.actualRunnable.getClass().getMethod("setupIteration").invoke(this.actualRunnable);
-        } catch (NoSuchMethodException|InvocationTargetException|IllegalAccessException ex) {
-            throw new RuntimeException(ex);
+    /** The same analysis wfapi/runs does, for the newest runs it lists by default */
+    public List<RunExt> createRunExts() {
+        WorkflowJob job = Jenkins.getInstance().getItemByFullName("benchmarkPipeline", WorkflowJob.class);
+        List<RunExt> exts = new ArrayList<RunExt>();
+        for (WorkflowRun run : job.getBuilds().limit(RUNS_LISTED)) {
+            exts.add(RunExt.createNew(run));
         }
+        return exts;
     }
 
+    @Override
     public void setupIteration() {
         this.client = new HttpClient();
+        this.method = new GetMethod(maskedClassesRunner.getBaseUrl() + "job/benchmarkPipeline/wfapi/runs?fullStages=true");
     }
 
-    public void setup() throws Exception {
-        super.setup();
-        this.actualRunnable.getClass().getMethod("printVersions").invoke(actualRunnable);
-        benchmarkExecutionMethod = actualRunnable.getClass().getMethod("benchmarkStageView");
+    public void flushFlowNodeCache(WorkflowJob job) {
+        FlowNodeStorageUtil.flushCaches(job);
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidateAll();
     }
 
-    public void flushFlowNodeCache(WorkflowJob job) {
+    @Override
+    public void setupTrial() {
+        printVersions();
         try{
-            Field nodeCacheField = SimpleXStreamFlowNodeStorage.class.getDeclaredField("nodeCache");
-            nodeCacheField.setAccessible(true);
-            for (WorkflowRun run : job.getBuilds()) {
-                SimpleXStreamFlowNodeStorage storage = (SimpleXStreamFlowNodeStorage)(((CpsFlowExecution)(run.getExecution())).getStorage());
-                LoadingCache myCache = (LoadingCache)(nodeCacheField.get(storage));
-                myCache.invalidateAll();
-            }
+            WorkflowJob p = createPipeline("benchmarkPipeline");
+            buildHistory(p, historySize);
+            // Build the history once, then each invocation restores a copy instead of re-running the builds
+            fixture = JobFixture.capture(p);
         } catch (Exception ex) {
-            throw new RuntimeException(ex);
+            throw new RuntimeException("Failed on setup trial", ex);
         }
-        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidateAll();
     }
 
     @Override
     public void setupInvocation() {
         try{
-            Jenkins jenkins = Jenkins.getInstance();
-            deleteProjects();
-            WorkflowJob p = jenkins.createProject(WorkflowJob.class, "benchmarkPipeline");
-            p.setDefinition(new CpsFlowDefinition("" +
-                    "for (int i=0; i<15; i++) {\n" +
-                    "    stage \"stage $i\" \n" +
-                    "    echo \"ran my stage is $i\"        \n" +
-                    "    node {\n" +
-                    "        echo 'whoami';\n" +
-                    "    }\n" +
-                    "}\n" +
-                    "node {sh'whoami';} \n"+
-                    "\n" +
-                    "stage 'label based'\n" +
-                    "echo 'wait for executor'\n" +
-                    "node {\n" +
-                    "    stage 'things using node'\n" +
-                    "    for (int i=0; i<200; i++) {\n" +
-                    "        echo \"we waited for this $i seconds\"    \n" +
-                    "    }\n" +
-                    "}", true));
-            for (int i=0; i<10; i++) {  // These will run in parallel
-                WorkflowRun run = p.scheduleBuild2(0).get();
-                while (run.getExecution() == null || !run.getExecution().isComplete()) {
-                    Thread.sleep(50);
-                }
-            }
-
+            WorkflowJob p = fixture.restore(WorkflowJob.class);
             WorkflowRun run = p.getLastBuild();
             System.out.println("Iota: "+((CpsFlowExecution)run.getExecution()).iota());
             flushFlowNodeCache(p);
+            if (stageViewMode.equals("jsonOnly")) {
+                preparedRunExts = createRunExts();
+            }
             System.gc(); //For a very good reason: weak reference caches
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -212,9 +232,9 @@ public class StageViewBenchmark extends BaseBenchmark  {
 
     }
 
-    public void teardown() throws Exception {
-        this.actualRunnable.getClass().getMethod("printVersions").invoke(actualRunnable);
-        super.teardown();
+    @Override
+    public void tearDownTrial() {
+        printVersions();
     }
 
     @Override
@@ -241,29 +261,6 @@ public class StageViewBenchmark extends BaseBenchmark  {
             }
         }*/
 
-        Options opt = new OptionsBuilder()
-                // Specify which benchmarks to run.
-                // You can be more specific if you'd like to run only one benchmark per test.
-                .include(StageViewBenchmark.class.getName() + ".*")
-                // Set the following options as needed
-                .mode (Mode.AverageTime)
-                .timeUnit(TimeUnit.MILLISECONDS)
-                .warmupIterations(1)
-                .warmupTime(TimeValue.seconds(300))
-                .measurementIterations(7)
-                .measurementTime(TimeValue.seconds(60))
-                .threads(1)
-                .forks(1)
-//                .addProfiler(StackProfiler.class)
-//                .jvmArgsAppend("-Djmh.stack.lines=5")
-                .shouldFailOnError(true)
-                .shouldDoGC(true)
-                .build();
-        try {
-            new Runner(opt).run();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            System.exit(0);
-        }
+        BenchmarkLauncher.run(StageViewBenchmark.class, args);
     }
 }
@@ -0,0 +1,119 @@
+package org.jenkinsci.test;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import jenkins.model.Jenkins;
+import org.jenkinsci.harness.BenchmarkInvoker;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.HttpLoadGenerator;
+import org.jenkinsci.harness.LoadResult;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage view REST endpoints under many simultaneous clients, as browsers hit them in production.
+ * Each invocation is one burst of load, the p50/p99/p99.9 latencies and throughput come out as secondary results.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StageViewLoadBenchmark extends PipelineShapeBenchmark {
+    static final String JOB_NAME = "loadPipeline";
+
+    @Param({"10"})
+    public int historySize;
+
+    /** runs: job-level wfapi/runs, describe: last run's wfapi/describe, stages: describe for each stage of the last run */
+    @Param({"runs", "describe", "stages"})
+    public String endpoint;
+
+    @Param({"1", "16"})
+    public int clients;
+
+    /** Requests per second across all clients, 0 to send as fast as responses return */
+    @Param({"0"})
+    public int targetRate;
+
+    @Param({"10"})
+    public int loadSeconds;
+
+    HttpLoadGenerator generator;
+
+    public Class getTestClass() {
+        return StageViewLoadBenchmark.class;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        super.setup();
+        BenchmarkInvoker targets = bindInvoker("loadTargets");
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : (List<String>) targets.invoke()) {
+            urls.add(new URL(maskedClassesRunner.getBaseUrl() + path));
+        }
+        generator = new HttpLoadGenerator(urls)
+                .threads(clients)
+                .targetRate(targetRate)
+                .duration(loadSeconds, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public LoadResult stageViewUnderLoad() throws Exception {
+        LoadResult result = generator.run();
+        System.out.println(endpoint + ": " + result);
+        result.record("wfapi." + endpoint);
+        return result;
+    }
+
+    @Override
+    public void setupTrial() {
+        try {
+            WorkflowJob p = createPipeline(JOB_NAME);
+            buildHistory(p, historySize);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed on setup trial", ex);
+        }
+    }
+
+    /** Paths relative to the Jenkins root for the chosen endpoint */
+    public List<String> loadTargets() throws Exception {
+        String jobPath = "job/" + JOB_NAME + "/";
+        List<String> paths = new ArrayList<String>();
+        if (endpoint.equals("runs")) {
+            paths.add(jobPath + "wfapi/runs?fullStages=true");
+        } else {
+            WorkflowRun run = Jenkins.getInstance().getItemByFullName(JOB_NAME, WorkflowJob.class).getLastBuild();
+            String runPath = jobPath + run.getNumber() + "/";
+            if (endpoint.equals("describe")) {
+                paths.add(runPath + "wfapi/describe");
+            } else if (endpoint.equals("stages")) {
+                for (StageNodeExt stage : RunExt.createNew(run).getStages()) {
+                    paths.add(runPath + "execution/node/" + stage.getId() + "/wfapi/describe");
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown endpoint: " + endpoint);
+            }
+        }
+        return paths;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(StageViewLoadBenchmark.class, args);
+    }
+}
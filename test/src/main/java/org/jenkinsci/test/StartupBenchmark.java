@@ -0,0 +1,131 @@
+package org.jenkinsci.test;
+
+import jenkins.model.Jenkins;
+import org.jenkinsci.harness.BaseBenchmark;
+import org.jenkinsci.harness.BenchmarkLauncher;
+import org.jenkinsci.harness.BenchmarkMetrics;
+import org.jenkinsci.harness.StubJobs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Controller boot, end to end: each invocation starts Jenkins on a prepared home, from the webapp deploying until init
+ * reaches COMPLETED. Time per init milestone, per plugin (loading plus initializing it) and spent loading items come
+ * out as secondary results.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark extends BaseBenchmark {
+    static final Pattern LOAD_PLUGIN = Pattern.compile("^Loading plugin .* \\((.+)\\)$");
+    static final Pattern INIT_PLUGIN = Pattern.compile("^Initializing plugin (.+)$");
+    static final String LOAD_ITEM_PREFIX = "Loading item ";
+
+    /** Root plugins joined with '+', installed with their required dependencies; "none" for bare core, "all" for every plugin */
+    @Param({"none", "workflow-job", "all"})
+    public String plugins;
+
+    /** Stub freestyle jobs written into the home */
+    @Param({"10", "1000", "10000"})
+    public int jobs;
+
+    @Param({"0", "10"})
+    public int buildsPerJob;
+
+    public Class getTestClass() {
+        return StartupBenchmark.class;
+    }
+
+    List<String> pluginRoots() {
+        if (plugins.equals("all")) {
+            return null;
+        } else if (plugins.equals("none")) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(plugins.split("\\+"));
+    }
+
+    @Override
+    public void setup() throws Exception {
+        maskedClassesRunner.setPluginRoots(pluginRoots());
+        super.setup();
+        StubJobs.write(maskedClassesRunner.getJenkinsHome(), "stub", jobs, buildsPerJob);
+        // Boot once untimed to check the stubs load, and so every timed boot finds the home in the page cache
+        restartJenkins();
+        int loaded = (Integer) bindInvoker("countItems").invoke();
+        if (loaded < jobs) {
+            throw new IllegalStateException("Only " + loaded + " of " + jobs + " stub jobs loaded");
+        }
+        maskedClassesRunner.stop();
+    }
+
+    @Benchmark
+    public Object coldStart() throws Exception {
+        maskedClassesRunner.start();
+        recordTimings();
+        return maskedClassesRunner.getJenkins();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopAfterStart() throws Exception {
+        maskedClassesRunner.stop();
+    }
+
+    void recordTimings() {
+        Map<String, Long> milestones = maskedClassesRunner.getMilestoneTimings();
+        if (milestones.isEmpty()) {  // Jenkins did start, so the monitor no longer recognizes how milestones are logged
+            throw new IllegalStateException("No init milestones were timed during startup");
+        }
+        for (Map.Entry<String, Long> milestone : milestones.entrySet()) {
+            BenchmarkMetrics.record("startup.milestone." + milestone.getKey(), milestone.getValue(), "ms");
+        }
+        Map<String, Long> perPlugin = new LinkedHashMap<String, Long>();
+        long loadingItems = 0;
+        for (Map.Entry<String, Long> task : maskedClassesRunner.getTaskTimings().entrySet()) {
+            String name = task.getKey();
+            Matcher m = LOAD_PLUGIN.matcher(name);
+            if (!m.matches()) {
+                m = INIT_PLUGIN.matcher(name);
+            }
+            if (m.matches()) {
+                Long sum = perPlugin.get(m.group(1));
+                perPlugin.put(m.group(1), (sum == null ? 0 : sum) + task.getValue());
+            } else if (name.startsWith(LOAD_ITEM_PREFIX)) {
+                loadingItems += task.getValue();
+            }
+        }
+        for (Map.Entry<String, Long> plugin : perPlugin.entrySet()) {
+            BenchmarkMetrics.record("startup.plugin." + plugin.getKey(), plugin.getValue(), "ms");
+        }
+        // Items load in parallel, so this is the total across threads rather than wall time
+        BenchmarkMetrics.record("startup.loadItems.total", loadingItems, "ms");
+    }
+
+    /** Top level items Jenkins has loaded */
+    public Object countItems() {
+        return Jenkins.getInstance().getItems().size();
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkLauncher.run(StartupBenchmark.class, args);
+    }
+}